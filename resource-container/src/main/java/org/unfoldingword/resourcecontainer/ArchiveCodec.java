@@ -0,0 +1,50 @@
+package org.unfoldingword.resourcecontainer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression format used to archive resource containers.
+ * Codecs are registered with {@link ArchiveCodecs} so they can be detected when an archive is opened.
+ */
+public interface ArchiveCodec {
+
+    /**
+     * Returns the unique name of this codec e.g. "bzip2"
+     * @return
+     */
+    String getName();
+
+    /**
+     * Checks if the leading bytes of an archive were written by this codec.
+     * @param signature the first bytes of the archive
+     * @param length the number of valid bytes in the signature. This will be at most {@link ArchiveCodecs#SIGNATURE_LENGTH}
+     * @return
+     */
+    boolean matches(byte[] signature, int length);
+
+    /**
+     * Checks if the libraries required by this codec are available at runtime
+     * @return
+     */
+    boolean isAvailable();
+
+    /**
+     * Wraps a stream of compressed data.
+     * Concatenated streams should be decoded as one if the format supports it.
+     * @param in
+     * @return the decompressed stream
+     * @throws IOException
+     */
+    InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * Wraps a stream to which compressed data will be written.
+     * Closing the returned stream must finish the compressed data and close the wrapped stream.
+     * @param out
+     * @return the compressing stream
+     * @throws IOException
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+}
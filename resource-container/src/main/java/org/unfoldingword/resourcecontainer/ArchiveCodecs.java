@@ -0,0 +1,264 @@
+package org.unfoldingword.resourcecontainer;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.deflate.DeflateCompressorInputStream;
+import org.apache.commons.compress.compressors.deflate.DeflateCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZUtils;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The registry of codecs that may be used to archive resource containers.
+ * Additional codecs can be added with {@link #register(ArchiveCodec)}
+ */
+public class ArchiveCodecs {
+
+    /**
+     * The number of leading bytes inspected when detecting the codec of an archive.
+     * This is large enough to include the magic of an uncompressed tar header.
+     */
+    public static final int SIGNATURE_LENGTH = 512;
+
+    /**
+     * The default codec. This is the format used by all other resource container tools.
+     */
+    public static final ArchiveCodec BZIP2 = new ArchiveCodec() {
+        @Override
+        public String getName() {
+            return "bzip2";
+        }
+
+        @Override
+        public boolean matches(byte[] signature, int length) {
+            return BZip2CompressorInputStream.matches(signature, length);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new BZip2CompressorInputStream(in, true);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new BZip2CompressorOutputStream(out);
+        }
+    };
+
+    /**
+     * Much faster than bzip2 to both compress and decompress at the cost of a larger archive
+     */
+    public static final ArchiveCodec GZIP = new ArchiveCodec() {
+        @Override
+        public String getName() {
+            return "gzip";
+        }
+
+        @Override
+        public boolean matches(byte[] signature, int length) {
+            return GzipCompressorInputStream.matches(signature, length);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GzipCompressorInputStream(in, true);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GzipCompressorOutputStream(out);
+        }
+    };
+
+    /**
+     * Deflate with a zlib header
+     */
+    public static final ArchiveCodec DEFLATE = new ArchiveCodec() {
+        @Override
+        public String getName() {
+            return "deflate";
+        }
+
+        @Override
+        public boolean matches(byte[] signature, int length) {
+            return DeflateCompressorInputStream.matches(signature, length);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new DeflateCompressorInputStream(in);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new DeflateCompressorOutputStream(out);
+        }
+    };
+
+    /**
+     * Produces the smallest archives.
+     * This requires the org.tukaani xz library which is not bundled with this library.
+     */
+    public static final ArchiveCodec XZ = new ArchiveCodec() {
+        @Override
+        public String getName() {
+            return "xz";
+        }
+
+        @Override
+        public boolean matches(byte[] signature, int length) {
+            return XZUtils.matches(signature, length);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return XZUtils.isXZCompressionAvailable();
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new XZCompressorInputStream(in, true);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new XZCompressorOutputStream(out);
+        }
+    };
+
+    /**
+     * An uncompressed tar
+     */
+    public static final ArchiveCodec NONE = new ArchiveCodec() {
+        private static final int MAGIC_OFFSET = 257;
+        private final byte[] magic = {'u', 's', 't', 'a', 'r'};
+
+        @Override
+        public String getName() {
+            return "tar";
+        }
+
+        @Override
+        public boolean matches(byte[] signature, int length) {
+            if(length < MAGIC_OFFSET + magic.length) return false;
+            for(int i = 0; i < magic.length; i ++) {
+                if(signature[MAGIC_OFFSET + i] != magic[i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return in;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return out;
+        }
+    };
+
+    private static final List<ArchiveCodec> codecs = new CopyOnWriteArrayList<>();
+
+    static {
+        codecs.add(BZIP2);
+        codecs.add(GZIP);
+        codecs.add(XZ);
+        codecs.add(NONE);
+        // TRICKY: the zlib header is weak so it is checked last
+        codecs.add(DEFLATE);
+    }
+
+    /**
+     * Registers a codec so it can be detected when opening archives.
+     * Codecs are checked in the order they were registered but always before {@link #DEFLATE}.
+     * @param codec
+     */
+    public static synchronized void register(ArchiveCodec codec) {
+        if(codec == null) throw new NullPointerException("codec is null");
+        if(get(codec.getName()) != null) throw new IllegalArgumentException("A codec named " + codec.getName() + " is already registered");
+        codecs.add(codecs.indexOf(DEFLATE), codec);
+    }
+
+    /**
+     * Returns the registered codec with the given name
+     * @param name
+     * @return the codec or null if no codec has the name
+     */
+    public static ArchiveCodec get(String name) {
+        for(ArchiveCodec codec:codecs) {
+            if(codec.getName().equals(name)) return codec;
+        }
+        return null;
+    }
+
+    /**
+     * Identifies the codec of an archive by it's leading bytes.
+     * The position of the stream is not changed.
+     * @param in a stream that supports mark/reset
+     * @return the codec or null if the format is not recognized
+     * @throws IOException
+     */
+    public static ArchiveCodec detect(InputStream in) throws IOException {
+        if(!in.markSupported()) throw new IllegalArgumentException("Mark is not supported");
+        byte[] signature = new byte[SIGNATURE_LENGTH];
+        in.mark(SIGNATURE_LENGTH);
+        int length;
+        try {
+            length = IOUtils.readFully(in, signature);
+        } finally {
+            in.reset();
+        }
+        for(ArchiveCodec codec:codecs) {
+            if(codec.matches(signature, length)) return codec;
+        }
+        return null;
+    }
+
+    /**
+     * Identifies the codec of an archive by it's leading bytes.
+     * @param archive
+     * @return the codec or null if the format is not recognized
+     * @throws IOException
+     */
+    public static ArchiveCodec detect(File archive) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(archive));
+        try {
+            return detect(in);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.unfoldingword.resourcecontainer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Bit level helpers for moving compressed blocks between bzip2 streams.
+ *
+ * A bzip2 stream is a 4 byte header ("BZh" and the block size) followed by blocks that are not byte aligned.
+ * Each block begins with a 48 bit magic and the CRC of its uncompressed data.
+ * The stream ends with another 48 bit magic, the combined CRC of the blocks and zero padding to a whole byte.
+ */
+class BZip2Blocks {
+    /**
+     * The block size used for every stream. Blocks hold up to 900 kB after run length encoding
+     */
+    public static final int BLOCK_SIZE = 9;
+    public static final byte[] STREAM_HEADER = {'B', 'Z', 'h', '0' + BLOCK_SIZE};
+    public static final long BLOCK_MAGIC = 0x314159265359L;
+    public static final long EOS_MAGIC = 0x177245385090L;
+    public static final int MAGIC_BITS = 48;
+    public static final int CRC_BITS = 32;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        // bzip2 uses the CRC-32 polynomial without reflecting the bits
+        for(int i = 0; i < 256; i ++) {
+            int crc = i << 24;
+            for(int j = 0; j < 8; j ++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private BZip2Blocks() {
+    }
+
+    /**
+     * Calculates the CRC stored in the header of a block
+     * @param data the uncompressed data of the block
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static int crc(byte[] data, int offset, int length) {
+        int crc = 0xffffffff;
+        for(int i = offset; i < offset + length; i ++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ data[i]) & 0xff];
+        }
+        return ~crc;
+    }
+
+    /**
+     * Adds the CRC of a block to the combined CRC of a stream
+     * @param combined the combined CRC of the preceding blocks
+     * @param blockCrc
+     * @return
+     */
+    public static int combineCrc(int combined, int blockCrc) {
+        return ((combined << 1) | (combined >>> 31)) ^ blockCrc;
+    }
+
+    /**
+     * Reads up to 64 bits
+     * @param data
+     * @param position the bit position to read from
+     * @param count the number of bits to read
+     * @return
+     */
+    public static long readBits(byte[] data, long position, int count) {
+        long value = 0;
+        for(int i = 0; i < count; i ++) {
+            long bit = position + i;
+            value = (value << 1) | ((data[(int)(bit >>> 3)] >>> (7 - (bit & 7))) & 1);
+        }
+        return value;
+    }
+
+    /**
+     * Finds the end of the only block in a bzip2 stream
+     * @param stream a complete bzip2 stream with a single block
+     * @param blockCrc the CRC of the uncompressed data in the block
+     * @return the bit position of the end of stream magic
+     * @throws IOException if the stream does not end with a single block of the given CRC
+     */
+    public static long findBlockEnd(byte[] stream, int blockCrc) throws IOException {
+        long length = stream.length * 8L;
+        // TRICKY: the stream is padded with up to 7 zero bits
+        for(int padding = 0; padding < 8; padding ++) {
+            long end = length - padding - MAGIC_BITS - CRC_BITS;
+            if(end < STREAM_HEADER.length * 8) break;
+            if(readBits(stream, end, MAGIC_BITS) == EOS_MAGIC
+                    && (int)readBits(stream, end + MAGIC_BITS, CRC_BITS) == blockCrc
+                    && readBits(stream, length - padding, padding) == 0) {
+                return end;
+            }
+        }
+        throw new IOException("The bzip2 stream does not contain a single block");
+    }
+
+    /**
+     * Writes bits to a stream. The last byte is padded with zeros by {@link #flush()}
+     */
+    public static class BitWriter {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[8192];
+        private int count = 0;
+        private long bits = 0;
+        private int bitCount = 0;
+
+        public BitWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Writes the low bits of a value
+         * @param count the number of bits to write. At most 32
+         * @param value
+         * @throws IOException
+         */
+        public void writeBits(int count, long value) throws IOException {
+            bits = (bits << count) | (value & ((1L << count) - 1));
+            bitCount += count;
+            while(bitCount >= 8) {
+                bitCount -= 8;
+                writeByte((int)(bits >>> bitCount));
+            }
+            bits &= (1L << bitCount) - 1;
+        }
+
+        /**
+         * Copies a range of bits
+         * @param data
+         * @param start the bit position of the first bit to copy
+         * @param end the bit position after the last bit to copy
+         * @throws IOException
+         */
+        public void writeBits(byte[] data, long start, long end) throws IOException {
+            long position = start;
+            while(position < end && (position & 7) != 0) {
+                writeBits(1, readBits(data, position, 1));
+                position ++;
+            }
+            int offset = (int)(position >>> 3);
+            int length = (int)((end - position) >>> 3);
+            if(bitCount == 0) {
+                flushBuffer();
+                out.write(data, offset, length);
+            } else {
+                for(int i = offset; i < offset + length; i ++) {
+                    writeBits(8, data[i]);
+                }
+            }
+            position += length * 8L;
+            while(position < end) {
+                writeBits(1, readBits(data, position, 1));
+                position ++;
+            }
+        }
+
+        /**
+         * Pads the last byte with zeros and writes the buffered bytes.
+         * This does not flush the underlying stream
+         * @throws IOException
+         */
+        public void flush() throws IOException {
+            if(bitCount > 0) writeBits(8 - bitCount, 0);
+            flushBuffer();
+        }
+
+        private void writeByte(int b) throws IOException {
+            if(count == buffer.length) flushBuffer();
+            buffer[count++] = (byte)b;
+        }
+
+        private void flushBuffer() throws IOException {
+            if(count > 0) out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.unfoldingword.resourcecontainer;
+
+/**
+ * Caches the contents of chunks read by {@link ResourceContainer#readChunk(String, String)}.
+ * A single cache is shared by all of the resource containers. See {@link ResourceContainer#setChunkCache(ChunkCache)}
+ *
+ * Implementations must be thread safe.
+ */
+public interface ChunkCache {
+
+    /**
+     * Returns a cached chunk
+     * @param key identifies the chunk file
+     * @param modifiedAt the current modification time of the chunk file.
+     *                   A chunk cached with a different modification time is stale and must not be returned
+     * @param length the current length in bytes of the chunk file.
+     *               A chunk cached with a different length is stale and must not be returned
+     * @return the contents or null if the chunk is not cached
+     */
+    String get(String key, long modifiedAt, long length);
+
+    /**
+     * Adds a chunk to the cache
+     * @param key identifies the chunk file
+     * @param modifiedAt the modification time of the chunk file when it was read
+     * @param length the length in bytes of the chunk file when it was read
+     * @param content the contents of the chunk
+     */
+    void put(String key, long modifiedAt, long length, String content);
+}
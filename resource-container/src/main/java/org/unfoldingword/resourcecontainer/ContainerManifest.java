@@ -0,0 +1,234 @@
+package org.unfoldingword.resourcecontainer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.unfoldingword.tools.jtar.TarEntry;
+import org.unfoldingword.tools.jtar.TarInputStream;
+import org.unfoldingword.tools.jtar.TarUtils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the size and modification time of each file in a resource container when it is closed.
+ * The manifest is stored inside the archive so the next close can tell if the directory has changed.
+ * In tar archives it is a pax global header at the start of the archive so tar tools do not extract it as a file.
+ *
+ * Times are recorded in seconds because that is all a tar header can hold.
+ * Like git's racy index check, a file modified in the same second as (or after) the manifest was
+ * created is always treated as changed.
+ */
+class ContainerManifest {
+    /**
+     * The pax header keyword of the manifest within a tar archive.
+     * TRICKY: tar tools warn about unknown keywords but silently ignore comments
+     */
+    public static final String PAX_KEYWORD = "comment";
+    private static final long DIRECTORY = -1;
+
+    private final String codec;
+    private final long createdAt;
+    private final Map<String, long[]> files;
+
+    ContainerManifest(String codec, long createdAt, Map<String, long[]> files) {
+        this.codec = codec;
+        this.createdAt = createdAt;
+        this.files = files;
+    }
+
+    /**
+     * Records the files in a container directory
+     * @param directory the container directory
+     * @param codec the name of the codec the archive will be compressed with
+     * @return
+     * @throws IOException
+     */
+    public static ContainerManifest scan(File directory, String codec) throws IOException {
+        long createdAt = System.currentTimeMillis() / 1000;
+        Map<String, long[]> files = new TreeMap<>();
+        scan(directory, "", files);
+        return new ContainerManifest(codec, createdAt, files);
+    }
+
+    /**
+     * Records the entries listed for a tar so the directory does not have to be scanned again.
+     * See {@link TarUtil#list(String, String, EntryFilter)}
+     * @param codec the name of the codec the archive will be compressed with
+     * @param createdAt the time in seconds before the entries were listed
+     * @param entries
+     * @return
+     */
+    public static ContainerManifest fromEntries(String codec, long createdAt, List<TarEntry> entries) {
+        Map<String, long[]> files = new TreeMap<>();
+        for(TarEntry entry:entries) {
+            String name = EntryTree.normalize(entry.getName());
+            if(entry.isDirectory()) {
+                files.put(name, new long[]{DIRECTORY, 0});
+            } else {
+                files.put(name, new long[]{entry.getSize(), entry.getModTime().getTime() / 1000});
+            }
+        }
+        return new ContainerManifest(codec, createdAt, files);
+    }
+
+    private static void scan(File dir, String parent, Map<String, long[]> files) throws IOException {
+        String[] names = dir.list();
+        if(names == null) throw new IOException("Failed to list contents of " + dir);
+        if(names.length == 0 && !parent.isEmpty()) {
+            files.put(parent.substring(0, parent.length() - 1), new long[]{DIRECTORY, 0});
+            return;
+        }
+        for(String name:names) {
+            File f = new File(dir, name);
+            if(f.isDirectory()) {
+                scan(f, parent + name + "/", files);
+            } else {
+                files.put(parent + name, new long[]{f.length(), f.lastModified() / 1000});
+            }
+        }
+    }
+
+    /**
+     * Reads the manifest stored in an archive.
+     * Tar archives are only decompressed until the first entry.
+     * @param archive
+     * @return the manifest or null if the archive does not have one
+     */
+    public static ContainerManifest read(File archive) {
+        if(!archive.isFile()) return null;
+        try {
+            if(IndexedArchive.isIndexed(archive)) {
+                IndexedArchive indexed = IndexedArchive.open(archive);
+                try {
+                    return indexed.getManifest();
+                } finally {
+                    indexed.close();
+                }
+            }
+
+            InputStream in = new BufferedInputStream(new FileInputStream(archive));
+            try {
+                ArchiveCodec codec = ArchiveCodecs.detect(in);
+                if(codec == null || !codec.isAvailable()) return null;
+                in = codec.decompress(in);
+                TarInputStream tin = new TarInputStream(in);
+                in = tin;
+                // the global header is read along with the first entry
+                tin.getNextEntry();
+                String data = tin.getPaxGlobalHeaders().get(PAX_KEYWORD);
+                if(data != null) return parse(data);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            // TRICKY: an unreadable archive will simply be rebuilt
+        }
+        return null;
+    }
+
+    /**
+     * Parses a manifest created by {@link #toJson()}
+     * @param data
+     * @return
+     * @throws JSONException
+     */
+    public static ContainerManifest parse(String data) throws JSONException {
+        JSONObject json = new JSONObject(data);
+        Map<String, long[]> files = new TreeMap<>();
+        JSONObject filesJson = json.getJSONObject("files");
+        JSONArray names = filesJson.names();
+        for(int i = 0; names != null && i < names.length(); i ++) {
+            String name = names.getString(i);
+            JSONArray values = filesJson.getJSONArray(name);
+            files.put(name, new long[]{values.getLong(0), values.getLong(1)});
+        }
+        return new ContainerManifest(json.getString("codec"), json.getLong("created_at"), files);
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns the time the manifest was created in seconds
+     * @return
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Returns the recorded files. Each value holds the size (-1 for empty directories) and modification time in seconds
+     * @return
+     */
+    public Map<String, long[]> getFiles() {
+        return files;
+    }
+
+    /**
+     * Checks if a file is unchanged since this manifest was created
+     * @param name the file path relative to the container
+     * @param size
+     * @param modifiedAt the modification time in seconds
+     * @return
+     */
+    public boolean isUnchanged(String name, long size, long modifiedAt) {
+        long[] recorded = files.get(name);
+        return recorded != null
+                && recorded[0] == size
+                && recorded[1] == modifiedAt
+                && modifiedAt < createdAt;
+    }
+
+    /**
+     * Checks if another manifest describes the same archive as this one
+     * @param current the manifest of the directory being closed
+     * @return
+     */
+    public boolean matches(ContainerManifest current) {
+        if(!codec.equals(current.codec) || !files.keySet().equals(current.files.keySet())) return false;
+        for(Map.Entry<String, long[]> entry:current.files.entrySet()) {
+            long[] value = entry.getValue();
+            if(value[0] == DIRECTORY) continue;
+            if(!isUnchanged(entry.getKey(), value[0], value[1])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the manifest as the records of a pax header
+     * @return
+     * @throws JSONException
+     * @throws IOException
+     */
+    public byte[] toPaxRecords() throws JSONException, IOException {
+        return TarUtils.formatPaxRecord(PAX_KEYWORD, toJson());
+    }
+
+    /**
+     * Serializes the manifest so it can be stored in an archive
+     * @return
+     * @throws JSONException
+     */
+    public String toJson() throws JSONException {
+        JSONObject filesJson = new JSONObject();
+        for(Map.Entry<String, long[]> entry:files.entrySet()) {
+            JSONArray values = new JSONArray();
+            values.put(entry.getValue()[0]);
+            values.put(entry.getValue()[1]);
+            filesJson.put(entry.getKey(), values);
+        }
+        JSONObject json = new JSONObject();
+        json.put("codec", codec);
+        json.put("created_at", createdAt);
+        json.put("files", filesJson);
+        return json.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package org.unfoldingword.resourcecontainer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shares loaded resource containers so each container directory is only held in memory once.
+ *
+ * Containers are keyed by their canonical path and are reloaded when their package.json changes on disk.
+ * When the pool holds more than the maximum number of containers, or more than the maximum weight,
+ * the least recently used containers are evicted.
+ *
+ * The weight of a container is the size of its metadata files (package.json, config.yml and toc.yml)
+ * which is roughly proportional to the memory used once they are parsed.
+ *
+ * This class is thread safe.
+ */
+public class ContainerPool {
+    private static final String[] WEIGHED_FILES = {"package.json", "content/config.yml", "content/toc.yml"};
+
+    private final int maxContainers;
+    private final long maxWeight;
+    private final File snapshotDirectory;
+    private final Map<String, PooledContainer> containers = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+
+    /**
+     * @param maxContainers the maximum number of containers to hold
+     * @param maxWeight the maximum total weight in bytes of the containers to hold
+     */
+    public ContainerPool(int maxContainers, long maxWeight) {
+        this(maxContainers, maxWeight, null);
+    }
+
+    /**
+     * @param maxContainers the maximum number of containers to hold
+     * @param maxWeight the maximum total weight in bytes of the containers to hold
+     * @param snapshotDirectory the directory where metadata snapshots are kept so containers reload faster.
+     *                          See {@link ResourceContainer#load(File, int, File)}. If null no snapshots are used
+     */
+    public ContainerPool(int maxContainers, long maxWeight, File snapshotDirectory) {
+        if(maxContainers < 1) throw new IllegalArgumentException("The pool must hold at least one container");
+        this.maxContainers = maxContainers;
+        this.maxWeight = maxWeight;
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * Returns the shared instance of a container. The container is loaded if it is not in the pool
+     * or if its package.json has changed since it was loaded.
+     * See {@link ResourceContainer#load(File, int, File)}
+     * @param containerDirectory
+     * @return
+     * @throws Exception
+     */
+    public ResourceContainer get(File containerDirectory) throws Exception {
+        String key = containerDirectory.getCanonicalPath();
+        File packageFile = new File(key, "package.json");
+        long size = packageFile.length();
+        long modifiedAt = packageFile.lastModified();
+
+        synchronized (this) {
+            PooledContainer pooled = containers.get(key);
+            if(pooled != null && pooled.isCurrent(size, modifiedAt)) return pooled.container;
+        }
+
+        // TRICKY: containers are loaded outside of the lock so other containers can be used in the meantime
+        ResourceContainer container = ResourceContainer.load(new File(key), ResourceContainer.PARSE_YAML, snapshotDirectory);
+        PooledContainer loaded = new PooledContainer(container, size, modifiedAt, weigh(new File(key)));
+
+        synchronized (this) {
+            PooledContainer pooled = containers.get(key);
+            if(pooled != null && pooled.isCurrent(size, modifiedAt)) return pooled.container;
+            if(pooled != null) weight -= pooled.weight;
+            containers.put(key, loaded);
+            weight += loaded.weight;
+            trim();
+        }
+        return container;
+    }
+
+    /**
+     * Removes a container from the pool
+     * @param containerDirectory
+     * @throws IOException
+     */
+    public synchronized void evict(File containerDirectory) throws IOException {
+        PooledContainer pooled = containers.remove(containerDirectory.getCanonicalPath());
+        if(pooled != null) weight -= pooled.weight;
+    }
+
+    /**
+     * Removes all of the containers from the pool
+     */
+    public synchronized void clear() {
+        containers.clear();
+        weight = 0;
+    }
+
+    /**
+     * Returns the number of containers in the pool
+     * @return
+     */
+    public synchronized int size() {
+        return containers.size();
+    }
+
+    /**
+     * Returns the total weight of the containers in the pool
+     * @return
+     */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * Evicts the least recently used containers until the pool is within its limits.
+     * The most recently used container is always kept even if it is heavier than the limit
+     */
+    private void trim() {
+        Iterator<PooledContainer> iterator = containers.values().iterator();
+        while(containers.size() > 1 && (containers.size() > maxContainers || weight > maxWeight)) {
+            PooledContainer eldest = iterator.next();
+            iterator.remove();
+            weight -= eldest.weight;
+        }
+    }
+
+    private static long weigh(File containerDirectory) {
+        long weight = 0;
+        for(String name:WEIGHED_FILES) {
+            weight += new File(containerDirectory, name).length();
+        }
+        return weight;
+    }
+
+    private static class PooledContainer {
+        final ResourceContainer container;
+        final long packageSize;
+        final long packageModifiedAt;
+        final long weight;
+
+        PooledContainer(ResourceContainer container, long packageSize, long packageModifiedAt, long weight) {
+            this.container = container;
+            this.packageSize = packageSize;
+            this.packageModifiedAt = packageModifiedAt;
+            this.weight = weight;
+        }
+
+        boolean isCurrent(long size, long modifiedAt) {
+            return packageSize == size && packageModifiedAt == modifiedAt;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.unfoldingword.resourcecontainer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Provides access to the files within a resource container.
+ * Paths are relative to the root of the container and use "/" as the separator e.g. "content/01/01.usfm"
+ */
+interface ContainerSource {
+
+    /**
+     * Returns the names of the files and directories directly within a directory
+     * @param path the directory path. An empty string is the root of the container
+     * @return the names or null if the directory does not exist
+     */
+    String[] list(String path);
+
+    /**
+     * Checks if the path is a directory
+     * @param path
+     * @return
+     */
+    boolean isDirectory(String path);
+
+    /**
+     * Checks if the path is a file
+     * @param path
+     * @return
+     */
+    boolean isFile(String path);
+
+    /**
+     * Opens a file for reading
+     * @param path
+     * @return
+     * @throws IOException if the file does not exist or cannot be read
+     */
+    InputStream open(String path) throws IOException;
+
+    /**
+     * Returns the modification time of a file
+     * @param path
+     * @return the time in milliseconds or 0 if the file does not exist
+     */
+    long lastModified(String path);
+
+    /**
+     * Returns the length of a file
+     * @param path
+     * @return the length in bytes or 0 if the file does not exist
+     */
+    long length(String path);
+
+    /**
+     * Releases any resources held by the source
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
@@ -2,11 +2,17 @@ package org.unfoldingword.resourcecontainer;
 
 import com.esotericsoftware.yamlbeans.YamlWriter;
 
+import org.apache.commons.compress.utils.CountingInputStream;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.unfoldingword.tools.jtar.TarEntry;
+import org.unfoldingword.tools.jtar.TarInputStream;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.InputStream;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -20,6 +26,7 @@ import java.util.regex.Pattern;
  * These are primarily for testing, internal tools or encapsulating backwards compatibility
  */
 public class ContainerTools {
+    private static final String PACKAGE_FILE = "package.json";
 
     /**
      * Reads the resource container info without opening it.
@@ -28,23 +35,110 @@ public class ContainerTools {
      * @return the resource container info (package.json)
      */
     public static JSONObject inspect(File containerPath) throws Exception {
-        if(!containerPath.exists()) throw new Exception("The resource container does not exist at " + containerPath.getAbsolutePath());
+        return inspect(containerPath, null);
+    }
 
-        ResourceContainer container;
+    /**
+     * Reads the resource container info without opening it.
+     * This will however, work on containers that are both open and closed.
+     *
+     * Closed containers are streamed until package.json has been read so nothing is written to the disk.
+     * @param containerPath path to the container archive or directory
+     * @param stats receives statistics about how much of the archive was read. This may be null.
+     * @return the resource container info (package.json)
+     */
+    public static JSONObject inspect(File containerPath, InspectStats stats) throws Exception {
+        if(!containerPath.exists()) throw new Exception("The resource container does not exist at " + containerPath.getAbsolutePath());
+        if(stats == null) stats = new InspectStats();
 
         if(containerPath.isFile()) {
             String[] nameArray = containerPath.getName().split("\\.");
             String ext = nameArray[nameArray.length - 1];
             if(!ext.equals(ResourceContainer.fileExtension)) throw new Exception("Invalid resource container file extension");
-            nameArray[nameArray.length - 1] = "";
-            File containerDir = new File(containerPath.getParentFile(), containerPath.getName() + ".inspect.tmp");
-            container = ResourceContainer.open(containerPath, containerDir);
-            FileUtil.deleteQuietly(containerDir);
+            return ResourceContainer.parsePackage(readArchivedPackage(containerPath, stats));
         } else {
-            container = ResourceContainer.load(containerPath);
+            return ResourceContainer.load(containerPath).info;
         }
+    }
 
-        return container.info;
+    /**
+     * Reads package.json out of a closed resource container.
+     * The archive is decompressed only until the package.json entry has been read.
+     * @param containerArchive
+     * @param stats
+     * @return the contents of package.json
+     * @throws Exception
+     */
+    private static String readArchivedPackage(File containerArchive, InspectStats stats) throws Exception {
+        stats.archiveBytes = containerArchive.length();
+        if(IndexedArchive.isIndexed(containerArchive)) {
+            IndexedArchive archive = IndexedArchive.open(containerArchive);
+            try {
+                if(!archive.isFile(PACKAGE_FILE)) throw new Exception("Not a resource container");
+                byte[] data = archive.read(PACKAGE_FILE);
+                stats.entriesScanned = 1;
+                stats.bytesDecompressed = data.length;
+                stats.terminatedEarly = archive.getManifest().getFiles().size() > 1;
+                return new String(data, "UTF-8");
+            } finally {
+                archive.close();
+            }
+        }
+
+        CountingInputStream compressed = new CountingInputStream(new FileInputStream(containerArchive));
+        InputStream in = new BufferedInputStream(compressed);
+        try {
+            ArchiveCodec codec = ArchiveCodecs.detect(in);
+            if(codec == null || !codec.isAvailable()) throw new Exception("Unsupported archive format");
+            CountingInputStream decompressed = new CountingInputStream(codec.decompress(in));
+            in = decompressed;
+            TarInputStream tin = new TarInputStream(decompressed);
+            try {
+                TarEntry entry;
+                while ((entry = tin.getNextEntry()) != null) {
+                    stats.entriesScanned ++;
+                    if(!entry.isDirectory() && EntryTree.normalize(entry.getName()).equals(PACKAGE_FILE)) {
+                        String data = FileUtil.readStreamToString(tin);
+                        // TRICKY: only the next header is read to tell if package.json was the last entry
+                        stats.terminatedEarly = tin.getNextEntry() != null;
+                        return data;
+                    }
+                }
+            } finally {
+                stats.compressedBytesRead = compressed.getBytesRead();
+                stats.bytesDecompressed = decompressed.getBytesRead();
+            }
+        } finally {
+            in.close();
+        }
+        throw new Exception("Not a resource container");
+    }
+
+    /**
+     * Statistics about how much of a closed resource container was read by {@link #inspect(File, InspectStats)}
+     */
+    public static class InspectStats {
+        /**
+         * The size of the archive
+         */
+        public long archiveBytes = 0;
+        /**
+         * The number of compressed bytes read from the archive
+         */
+        public long compressedBytesRead = 0;
+        /**
+         * The number of bytes decompressed
+         */
+        public long bytesDecompressed = 0;
+        /**
+         * The number of archive entries read up to and including package.json
+         */
+        public int entriesScanned = 0;
+        /**
+         * Indicates package.json was found before the end of the archive.
+         * This is false if package.json is the last entry
+         */
+        public boolean terminatedEarly = false;
     }
 
     /**
@@ -0,0 +1,151 @@
+package org.unfoldingword.resourcecontainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The chapters and chunks of a resource container.
+ * The content directory is listed once and the slugs are sorted in the order of the table of contents.
+ * Slugs that are not in the table of contents follow in natural order e.g. "2" before "10".
+ */
+class ContentIndex {
+    private final String[] chapters;
+    private final Map<String, String[]> chunks = new HashMap<>();
+
+    /**
+     * Lists the content of a container
+     * @param source
+     * @param contentDir the path to the content directory
+     * @param toc the table of contents. Only a list of chapters is used for ordering
+     */
+    ContentIndex(ContainerSource source, String contentDir, Object toc) {
+        Map<String, Integer> chapterOrder = new HashMap<>();
+        Map<String, Map<String, Integer>> chunkOrder = new HashMap<>();
+        readOrder(toc, chapterOrder, chunkOrder);
+
+        List<String> chapterList = new ArrayList<>();
+        String[] files = source.list(contentDir);
+        if(files != null) {
+            for(String filename:files) {
+                if(filename.equals("config.yml") || filename.equals("toc.yml")) continue;
+                String[] chapterFiles = source.list(contentDir + "/" + filename);
+                // TRICKY: listing a file returns null so this also checks if it is a directory
+                if(chapterFiles == null) continue;
+                chapterList.add(filename);
+
+                String[] chapterChunks = new String[chapterFiles.length];
+                for(int i = 0; i < chapterFiles.length; i ++) {
+                    chapterChunks[i] = chapterFiles[i].split("\\.")[0];
+                }
+                Arrays.sort(chapterChunks, new TocOrder(chunkOrder.get(filename)));
+                chunks.put(filename, chapterChunks);
+            }
+        }
+        chapters = chapterList.toArray(new String[chapterList.size()]);
+        Arrays.sort(chapters, new TocOrder(chapterOrder));
+    }
+
+    /**
+     * Returns the chapter slugs
+     * @return a copy of the sorted slugs
+     */
+    public String[] chapters() {
+        return chapters.clone();
+    }
+
+    /**
+     * Returns the chunk slugs of a chapter
+     * @param chapterSlug
+     * @return a copy of the sorted slugs or an empty array if the chapter does not exist
+     */
+    public String[] chunks(String chapterSlug) {
+        String[] chapterChunks = chunks.get(chapterSlug);
+        return chapterChunks != null ? chapterChunks.clone() : new String[0];
+    }
+
+    /**
+     * Records the position of each chapter and chunk in the table of contents
+     * @param toc
+     * @param chapterOrder
+     * @param chunkOrder
+     */
+    private static void readOrder(Object toc, Map<String, Integer> chapterOrder, Map<String, Map<String, Integer>> chunkOrder) {
+        if(!(toc instanceof List)) return;
+        for(Object item:(List)toc) {
+            if(!(item instanceof Map)) continue;
+            Object chapter = ((Map)item).get("chapter");
+            if(chapter == null || chapterOrder.containsKey(chapter.toString())) continue;
+            chapterOrder.put(chapter.toString(), chapterOrder.size());
+
+            Map<String, Integer> order = new HashMap<>();
+            Object chapterChunks = ((Map)item).get("chunks");
+            if(chapterChunks instanceof List) {
+                for(Object chunk:(List)chapterChunks) {
+                    if(chunk != null && !order.containsKey(chunk.toString())) order.put(chunk.toString(), order.size());
+                }
+            }
+            chunkOrder.put(chapter.toString(), order);
+        }
+    }
+
+    /**
+     * Orders slugs by their position in the table of contents and then in natural order
+     */
+    private static class TocOrder implements Comparator<String> {
+        private final Map<String, Integer> order;
+
+        TocOrder(Map<String, Integer> order) {
+            this.order = order;
+        }
+
+        @Override
+        public int compare(String lhs, String rhs) {
+            Integer lhsIndex = order != null ? order.get(lhs) : null;
+            Integer rhsIndex = order != null ? order.get(rhs) : null;
+            if(lhsIndex != null && rhsIndex != null) return lhsIndex.compareTo(rhsIndex);
+            if(lhsIndex != null) return -1;
+            if(rhsIndex != null) return 1;
+            return compareNatural(lhs, rhs);
+        }
+    }
+
+    /**
+     * Compares strings with runs of digits compared by their numeric value e.g. "2" before "10"
+     * @param lhs
+     * @param rhs
+     * @return
+     */
+    static int compareNatural(String lhs, String rhs) {
+        int i = 0;
+        int j = 0;
+        while(i < lhs.length() && j < rhs.length()) {
+            char a = lhs.charAt(i);
+            char b = rhs.charAt(j);
+            if(Character.isDigit(a) && Character.isDigit(b)) {
+                int aStart = i;
+                int bStart = j;
+                while(i < lhs.length() && Character.isDigit(lhs.charAt(i))) i ++;
+                while(j < rhs.length() && Character.isDigit(rhs.charAt(j))) j ++;
+                // ignore leading zeros so the lengths compare the magnitudes
+                while(aStart < i - 1 && lhs.charAt(aStart) == '0') aStart ++;
+                while(bStart < j - 1 && rhs.charAt(bStart) == '0') bStart ++;
+                int aLength = i - aStart;
+                int bLength = j - bStart;
+                if(aLength != bLength) return aLength - bLength;
+                int result = lhs.substring(aStart, i).compareTo(rhs.substring(bStart, j));
+                if(result != 0) return result;
+            } else {
+                if(a != b) return a - b;
+                i ++;
+                j ++;
+            }
+        }
+        if(i < lhs.length() || j < rhs.length()) return (lhs.length() - i) - (rhs.length() - j);
+        // TRICKY: keep "01" and "1" apart so the order is consistent with equals
+        return lhs.compareTo(rhs);
+    }
+}
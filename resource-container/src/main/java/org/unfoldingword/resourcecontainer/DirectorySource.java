@@ -0,0 +1,52 @@
+package org.unfoldingword.resourcecontainer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the files of an opened resource container directly from the disk
+ */
+class DirectorySource implements ContainerSource {
+    private final File directory;
+
+    public DirectorySource(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String[] list(String path) {
+        return new File(directory, path).list();
+    }
+
+    @Override
+    public boolean isDirectory(String path) {
+        return new File(directory, path).isDirectory();
+    }
+
+    @Override
+    public boolean isFile(String path) {
+        return new File(directory, path).isFile();
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        return new FileInputStream(new File(directory, path));
+    }
+
+    @Override
+    public long lastModified(String path) {
+        return new File(directory, path).lastModified();
+    }
+
+    @Override
+    public long length(String path) {
+        return new File(directory, path).length();
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
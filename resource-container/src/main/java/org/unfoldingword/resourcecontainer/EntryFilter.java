@@ -0,0 +1,76 @@
+package org.unfoldingword.resourcecontainer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Selects which archive entries are extracted when opening a resource container.
+ * Entry names are relative to the root of the container e.g. "content/01/01.usfm".
+ *
+ * The container metadata (package.json, LICENSE.md, content/config.yml and content/toc.yml)
+ * is always extracted regardless of the filter.
+ */
+public abstract class EntryFilter {
+
+    /**
+     * Checks if an entry should be extracted
+     * @param entryName the normalized entry name e.g. "content/01/01.usfm" or "content/01" for a directory
+     * @return
+     */
+    public abstract boolean accept(String entryName);
+
+    /**
+     * Accepts the entries within the given chapters
+     * @param chapterSlugs
+     * @return
+     */
+    public static EntryFilter chapters(String... chapterSlugs) {
+        final Set<String> chapters = new HashSet<>(Arrays.asList(chapterSlugs));
+        return new EntryFilter() {
+            @Override
+            public boolean accept(String entryName) {
+                String[] parts = entryName.split("/");
+                return parts.length >= 2 && parts[0].equals("content") && chapters.contains(parts[1]);
+            }
+        };
+    }
+
+    /**
+     * Accepts the entries that match a glob pattern.
+     * "*" matches within a single directory, "**" matches across directories and "?" matches a single character.
+     * e.g. "content/01/*" or "content/**.usfm"
+     * @param pattern
+     * @return
+     */
+    public static EntryFilter glob(String pattern) {
+        final Pattern regex = Pattern.compile(globToRegex(pattern));
+        return new EntryFilter() {
+            @Override
+            public boolean accept(String entryName) {
+                return regex.matcher(entryName).matches();
+            }
+        };
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for(int i = 0; i < glob.length(); i ++) {
+            char c = glob.charAt(i);
+            if(c == '*') {
+                if(i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i ++;
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if(c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+}
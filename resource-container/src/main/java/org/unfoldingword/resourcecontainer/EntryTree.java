@@ -0,0 +1,90 @@
+package org.unfoldingword.resourcecontainer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a directory tree from a flat list of archive entry names.
+ * This lets archive backed sources answer directory listings without touching the disk.
+ */
+class EntryTree {
+    private final Map<String, Set<String>> directories = new HashMap<>();
+    private final Set<String> files = new HashSet<>();
+
+    public EntryTree() {
+        directories.put("", new LinkedHashSet<String>());
+    }
+
+    /**
+     * Normalizes an entry name or path e.g. "./content/01/" becomes "content/01"
+     * @param path
+     * @return
+     */
+    public static String normalize(String path) {
+        if(path.startsWith("./")) path = path.substring(2);
+        int start = 0;
+        int end = path.length();
+        while(start < end && path.charAt(start) == '/') start ++;
+        while(end > start && path.charAt(end - 1) == '/') end --;
+        return path.substring(start, end);
+    }
+
+    /**
+     * Adds a file. Parent directories are added as needed
+     * @param name
+     */
+    public void addFile(String name) {
+        name = normalize(name);
+        if(name.isEmpty()) return;
+        addToParent(name);
+        files.add(name);
+    }
+
+    /**
+     * Adds a directory. Parent directories are added as needed
+     * @param name
+     */
+    public void addDirectory(String name) {
+        name = normalize(name);
+        if(name.isEmpty() || directories.containsKey(name)) return;
+        addToParent(name);
+        directories.put(name, new LinkedHashSet<String>());
+    }
+
+    private void addToParent(String name) {
+        int index = name.lastIndexOf('/');
+        String parent = index == -1 ? "" : name.substring(0, index);
+        addDirectory(parent);
+        directories.get(parent).add(name.substring(index + 1));
+    }
+
+    /**
+     * Returns the names of the files and directories directly within a directory
+     * @param path
+     * @return the names or null if the directory does not exist
+     */
+    public String[] list(String path) {
+        Set<String> children = directories.get(normalize(path));
+        if(children == null) return null;
+        return children.toArray(new String[children.size()]);
+    }
+
+    public boolean isDirectory(String path) {
+        return directories.containsKey(normalize(path));
+    }
+
+    public boolean isFile(String path) {
+        return files.contains(normalize(path));
+    }
+
+    /**
+     * Returns the paths of all the files in the tree
+     * @return
+     */
+    public Set<String> getFiles() {
+        return files;
+    }
+}
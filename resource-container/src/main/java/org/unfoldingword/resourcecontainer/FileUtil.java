@@ -19,6 +19,12 @@ import java.util.List;
  * Created by joel on 9/1/16.
  */
 class FileUtil {
+    /**
+     * The coarsest resolution of file modification times in milliseconds.
+     * FAT formatted sd cards only record modification times to 2 seconds, so a file modified
+     * more recently than this may change again without its modification time changing.
+     */
+    public static final long MODIFIED_TIME_RESOLUTION = 2000;
 
     /**
      * Converts an input stream into a string
@@ -0,0 +1,346 @@
+package org.unfoldingword.resourcecontainer;
+
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.unfoldingword.tools.jtar.ChannelInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A resource container archive in which every file is compressed independently
+ * and listed in a trailing index. Individual files can be read without extracting the archive.
+ *
+ * <pre>
+ * Offset          Size      Field
+ * 0               8         Magic "TSRCIDX1"
+ * 8               n         Compressed entries
+ * index           n         Codec name, creation time, entry count and the entries
+ *                           (name, directory flag, offset, compressed length, size, modification time)
+ * length - 16     8         Offset of the index
+ * length - 8      8         Magic "TSRCIDX1"
+ * </pre>
+ */
+class IndexedArchive implements ContainerSource {
+    private static final byte[] MAGIC = {'T', 'S', 'R', 'C', 'I', 'D', 'X', '1'};
+    private static final int FOOTER_LENGTH = 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ArchiveCodec codec;
+    private final long createdAt;
+    private final Map<String, Entry> entries;
+    private final EntryTree tree = new EntryTree();
+
+    private IndexedArchive(RandomAccessFile file, ArchiveCodec codec, long createdAt, Map<String, Entry> entries) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.codec = codec;
+        this.createdAt = createdAt;
+        this.entries = entries;
+        for(Entry entry:entries.values()) {
+            if(entry.directory) {
+                tree.addDirectory(entry.name);
+            } else {
+                tree.addFile(entry.name);
+            }
+        }
+    }
+
+    /**
+     * Checks if the file is an indexed archive
+     * @param archive
+     * @return
+     */
+    public static boolean isIndexed(File archive) {
+        if(!archive.isFile() || archive.length() < MAGIC.length + FOOTER_LENGTH) return false;
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            InputStream in = new FileInputStream(archive);
+            try {
+                return IOUtils.readFully(in, magic) == magic.length && Arrays.equals(magic, MAGIC);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the contents of a directory to an indexed archive
+     * @param directory the directory to archive
+     * @param archive the archive file
+     * @param codec the codec used to compress each entry
+     * @throws IOException
+     */
+    public static void write(File directory, File archive, ArchiveCodec codec) throws IOException {
+        write(directory, archive, codec, ContainerManifest.scan(directory, codec.getName()), null);
+    }
+
+    /**
+     * Writes the contents of a directory to an indexed archive.
+     * Files that are unchanged in the previous archive are copied from it without being compressed again.
+     * @param directory the directory to archive
+     * @param archive the archive file. This must not be the previous archive
+     * @param codec the codec used to compress each entry
+     * @param manifest the files to write. See {@link ContainerManifest#scan(File, String)}
+     * @param previous the previous archive of the directory. This may be null
+     * @throws IOException
+     */
+    public static void write(File directory, File archive, ArchiveCodec codec, ContainerManifest manifest, IndexedArchive previous) throws IOException {
+        ContainerManifest previousManifest = null;
+        if(previous != null && previous.codec == codec) previousManifest = previous.getManifest();
+
+        CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
+        try {
+            out.write(MAGIC);
+            List<Entry> written = new ArrayList<>();
+            for(Map.Entry<String, long[]> file:manifest.getFiles().entrySet()) {
+                String name = file.getKey();
+                long size = file.getValue()[0];
+                long modifiedAt = file.getValue()[1];
+                long offset = out.getBytesWritten();
+                if(size < 0) {
+                    written.add(new Entry(name, true, offset, 0, 0, 0));
+                    continue;
+                }
+                if(previousManifest != null && previousManifest.isUnchanged(name, size, modifiedAt)) {
+                    Entry entry = previous.entries.get(name);
+                    IOUtils.copy(new ChannelInputStream(previous.channel, entry.offset, entry.compressedLength), out);
+                } else {
+                    InputStream in = new FileInputStream(new File(directory, name));
+                    try {
+                        OutputStream entryOut = codec.compress(new NonClosingOutputStream(out));
+                        size = IOUtils.copy(in, entryOut);
+                        entryOut.close();
+                    } finally {
+                        in.close();
+                    }
+                }
+                written.add(new Entry(name, false, offset, out.getBytesWritten() - offset, size, modifiedAt));
+            }
+
+            long indexOffset = out.getBytesWritten();
+            DataOutputStream index = new DataOutputStream(out);
+            index.writeUTF(codec.getName());
+            index.writeLong(manifest.getCreatedAt());
+            index.writeInt(written.size());
+            for(Entry entry:written) {
+                index.writeUTF(entry.name);
+                index.writeBoolean(entry.directory);
+                index.writeLong(entry.offset);
+                index.writeLong(entry.compressedLength);
+                index.writeLong(entry.size);
+                index.writeLong(entry.modifiedAt);
+            }
+            index.writeLong(indexOffset);
+            index.write(MAGIC);
+            index.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Opens an indexed archive for reading.
+     * The archive must be closed when no longer needed.
+     * @param archive
+     * @return
+     * @throws IOException
+     */
+    public static IndexedArchive open(File archive) throws IOException {
+        if(!isIndexed(archive)) throw new IOException("Not an indexed archive");
+        RandomAccessFile file = new RandomAccessFile(archive, "r");
+        try {
+            long length = file.length();
+            file.seek(length - FOOTER_LENGTH);
+            long indexOffset = file.readLong();
+            byte[] magic = new byte[MAGIC.length];
+            file.readFully(magic);
+            if(!Arrays.equals(magic, MAGIC) || indexOffset < MAGIC.length || indexOffset > length - FOOTER_LENGTH) {
+                throw new IOException("Corrupt archive index");
+            }
+
+            byte[] indexBytes = new byte[(int)(length - FOOTER_LENGTH - indexOffset)];
+            file.seek(indexOffset);
+            file.readFully(indexBytes);
+            DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexBytes));
+            String codecName = index.readUTF();
+            ArchiveCodec codec = ArchiveCodecs.get(codecName);
+            if(codec == null || !codec.isAvailable()) throw new IOException("The " + codecName + " codec is not available");
+            long createdAt = index.readLong();
+            int count = index.readInt();
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            for(int i = 0; i < count; i ++) {
+                Entry entry = new Entry(index.readUTF(), index.readBoolean(), index.readLong(), index.readLong(), index.readLong(), index.readLong());
+                entries.put(entry.name, entry);
+            }
+            return new IndexedArchive(file, codec, createdAt, entries);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Extracts all of the entries to a directory
+     * @param directory
+     * @throws IOException
+     */
+    public void extract(File directory) throws IOException {
+        extract(directory, null);
+    }
+
+    /**
+     * Extracts the selected entries to a directory
+     * @param directory
+     * @param filter selects the entries to extract. If null all entries are extracted
+     * @throws IOException
+     */
+    public void extract(File directory, EntryFilter filter) throws IOException {
+        for(Entry entry:entries.values()) {
+            if(filter != null && !filter.accept(entry.name)) continue;
+            File dest = new File(directory, entry.name);
+            if(entry.directory) {
+                dest.mkdirs();
+                continue;
+            }
+            dest.getParentFile().mkdirs();
+            InputStream in = open(entry.name);
+            try {
+                FileUtil.copyInputStreamToFile(in, dest);
+            } catch (IOException e) {
+                // TRICKY: a partial file would be skipped when the extraction is retried
+                FileUtil.deleteQuietly(dest);
+                throw e;
+            } finally {
+                in.close();
+            }
+            dest.setLastModified(entry.modifiedAt * 1000);
+        }
+    }
+
+    /**
+     * Returns the manifest recorded in the index when the archive was written
+     * @return
+     */
+    public ContainerManifest getManifest() {
+        Map<String, long[]> files = new TreeMap<>();
+        for(Entry entry:entries.values()) {
+            files.put(entry.name, entry.directory ? new long[]{-1, 0} : new long[]{entry.size, entry.modifiedAt});
+        }
+        return new ContainerManifest(codec.getName(), createdAt, files);
+    }
+
+    /**
+     * Reads an entire file from the archive
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public byte[] read(String path) throws IOException {
+        InputStream in = open(path);
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String[] list(String path) {
+        return tree.list(path);
+    }
+
+    @Override
+    public boolean isDirectory(String path) {
+        return tree.isDirectory(path);
+    }
+
+    @Override
+    public boolean isFile(String path) {
+        return tree.isFile(path);
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        Entry entry = entries.get(EntryTree.normalize(path));
+        if(entry == null || entry.directory) throw new FileNotFoundException(path + " was not found in the archive");
+        InputStream in = new BufferedInputStream(new ChannelInputStream(channel, entry.offset, entry.compressedLength));
+        return codec.decompress(in);
+    }
+
+    @Override
+    public long lastModified(String path) {
+        Entry entry = entries.get(EntryTree.normalize(path));
+        return entry != null && !entry.directory ? entry.modifiedAt * 1000 : 0;
+    }
+
+    @Override
+    public long length(String path) {
+        Entry entry = entries.get(EntryTree.normalize(path));
+        return entry != null && !entry.directory ? entry.size : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static class Entry {
+        final String name;
+        final boolean directory;
+        final long offset;
+        final long compressedLength;
+        final long size;
+        final long modifiedAt;
+
+        Entry(String name, boolean directory, long offset, long compressedLength, long size, long modifiedAt) {
+            this.name = name;
+            this.directory = directory;
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.size = size;
+            this.modifiedAt = modifiedAt;
+        }
+    }
+
+    /**
+     * Prevents codecs from closing the archive when an entry is finished
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
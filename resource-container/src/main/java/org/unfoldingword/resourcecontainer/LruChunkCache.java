@@ -0,0 +1,141 @@
+package org.unfoldingword.resourcecontainer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A chunk cache that holds up to a number of bytes and evicts the least recently used chunks.
+ * Chunks larger than the cache are not cached.
+ *
+ * The number of hits, misses and evictions are counted so the cache can be sized for a deployment.
+ */
+public class LruChunkCache implements ChunkCache {
+    // TRICKY: an estimate of the memory used by the map entry, the cache entry and the string objects
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxBytes;
+    private final Map<String, CachedChunk> chunks = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxBytes the maximum memory in bytes the cached chunks may use
+     */
+    public LruChunkCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized String get(String key, long modifiedAt, long length) {
+        CachedChunk chunk = chunks.get(key);
+        if(chunk != null && (chunk.modifiedAt != modifiedAt || chunk.length != length)) {
+            // the chunk has changed on the disk
+            chunks.remove(key);
+            bytes -= chunk.weight;
+            chunk = null;
+        }
+        if(chunk == null) {
+            misses ++;
+            return null;
+        }
+        hits ++;
+        return chunk.content;
+    }
+
+    @Override
+    public synchronized void put(String key, long modifiedAt, long length, String content) {
+        CachedChunk chunk = new CachedChunk(modifiedAt, length, content, weigh(key, content));
+        CachedChunk previous = chunks.remove(key);
+        if(previous != null) bytes -= previous.weight;
+        if(chunk.weight > maxBytes) return;
+
+        chunks.put(key, chunk);
+        bytes += chunk.weight;
+        Iterator<CachedChunk> iterator = chunks.values().iterator();
+        while(bytes > maxBytes) {
+            CachedChunk eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.weight;
+            evictions ++;
+        }
+    }
+
+    /**
+     * Removes all of the chunks. The counters are not reset
+     */
+    public synchronized void clear() {
+        chunks.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the number of cached chunks
+     * @return
+     */
+    public synchronized int size() {
+        return chunks.size();
+    }
+
+    /**
+     * Returns the estimated memory in bytes used by the cached chunks
+     * @return
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of reads that were served from the cache
+     * @return
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of reads that were not cached or were stale
+     * @return
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of chunks removed to make room for others
+     * @return
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LruChunkCache{chunks=" + chunks.size() + ", bytes=" + bytes + "/" + maxBytes
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    private static long weigh(String key, String content) {
+        return ENTRY_OVERHEAD + 2L * (key.length() + content.length());
+    }
+
+    private static class CachedChunk {
+        final long modifiedAt;
+        final long length;
+        final String content;
+        final long weight;
+
+        CachedChunk(long modifiedAt, long length, String content, long weight) {
+            this.modifiedAt = modifiedAt;
+            this.length = length;
+            this.content = content;
+            this.weight = weight;
+        }
+    }
+}
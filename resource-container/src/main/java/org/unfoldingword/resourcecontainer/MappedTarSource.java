@@ -0,0 +1,130 @@
+package org.unfoldingword.resourcecontainer;
+
+import org.unfoldingword.tools.jtar.TarFile;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the files of a resource container from an uncompressed tar that is mapped into memory.
+ * The tar headers are indexed once by {@link TarFile} and files are read by slicing the mapped buffer.
+ */
+class MappedTarSource implements ContainerSource {
+    private final MappedByteBuffer buffer;
+    private final Map<String, long[]> entries = new HashMap<>();
+    private final EntryTree tree = new EntryTree();
+
+    /**
+     * Maps and indexes the tar
+     * @param tar an uncompressed tar
+     * @throws IOException
+     */
+    public MappedTarSource(File tar) throws IOException {
+        TarFile tarFile = new TarFile(tar);
+        try {
+            FileChannel channel = tarFile.getChannel();
+            if(channel.size() > Integer.MAX_VALUE) throw new IOException("The tar is too large to be mapped");
+            // TRICKY: the mapping remains valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            index(tarFile);
+        } finally {
+            tarFile.close();
+        }
+    }
+
+    /**
+     * Records the location of the entry data
+     * @param tarFile
+     */
+    private void index(TarFile tarFile) {
+        for(TarFile.Entry entry:tarFile.getEntries()) {
+            String name = EntryTree.normalize(entry.getName());
+            if(entry.isDirectory()) {
+                tree.addDirectory(name);
+            } else {
+                tree.addFile(name);
+                entries.put(name, new long[]{entry.getDataOffset(), entry.getSize(), entry.getLastModified()});
+            }
+        }
+    }
+
+    @Override
+    public String[] list(String path) {
+        return tree.list(path);
+    }
+
+    @Override
+    public boolean isDirectory(String path) {
+        return tree.isDirectory(path);
+    }
+
+    @Override
+    public boolean isFile(String path) {
+        return tree.isFile(path);
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        long[] entry = entries.get(EntryTree.normalize(path));
+        if(entry == null) throw new FileNotFoundException(path + " was not found in the archive");
+        ByteBuffer slice = buffer.duplicate();
+        slice.position((int)entry[0]);
+        slice.limit((int)(entry[0] + entry[1]));
+        return new ByteBufferInputStream(slice);
+    }
+
+    @Override
+    public long lastModified(String path) {
+        long[] entry = entries.get(EntryTree.normalize(path));
+        return entry != null ? entry[2] : 0;
+    }
+
+    @Override
+    public long length(String path) {
+        long[] entry = entries.get(EntryTree.normalize(path));
+        return entry != null ? entry[1] : 0;
+    }
+
+    @Override
+    public void close() {
+        // TRICKY: the mapping is released when the buffer is garbage collected
+        entries.clear();
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(len == 0) return 0;
+            if(!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package org.unfoldingword.resourcecontainer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary copy of the parsed metadata files of a container directory
+ * so they can be loaded without parsing package.json and the yaml files again.
+ *
+ * Snapshots are stored in a separate cache directory so the container directory is never modified.
+ * Each section is keyed by the size and modification time of the file it was parsed from
+ * and is ignored once that file changes.
+ *
+ * <pre>
+ * Magic "TSRCSNP1"
+ * Canonical path of the container directory
+ * Sections, each: source path, source size, source modification time, time written, data length, data
+ * </pre>
+ */
+class MetadataSnapshot {
+    private static final String FILE_EXTENSION = ".snapshot";
+    private static final byte[] MAGIC = {'T', 'S', 'R', 'C', 'S', 'N', 'P', '1'};
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int MAP = 2;
+    private static final int LIST = 3;
+    private static final int JSON_OBJECT = 4;
+    private static final int JSON_ARRAY = 5;
+    private static final int INT = 6;
+    private static final int LONG = 7;
+    private static final int DOUBLE = 8;
+    private static final int BOOLEAN = 9;
+    private static final int JSON_NULL = 10;
+    // TRICKY: limits the recursion when reading a corrupt snapshot. Metadata files are never nested this deeply
+    private static final int MAX_DEPTH = 256;
+
+    private final File directory;
+    private final String containerPath;
+    private final File cacheDirectory;
+    private final File file;
+
+    /**
+     * @param directory the container directory
+     * @param cacheDirectory the directory where the snapshots of containers are stored
+     * @throws IOException if the path of the container directory cannot be resolved
+     */
+    MetadataSnapshot(File directory, File cacheDirectory) throws IOException {
+        this.directory = directory;
+        this.containerPath = directory.getCanonicalPath();
+        this.cacheDirectory = cacheDirectory;
+        // TRICKY: containers with the same name in different places are told apart by the path stored in the snapshot
+        this.file = new File(cacheDirectory, directory.getName() + "-" + Integer.toHexString(containerPath.hashCode()) + FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the file the snapshot is stored in
+     * @return
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads a section of the snapshot
+     * @param path the path of the source file relative to the container e.g. "package.json"
+     * @return the parsed file or null if the section is missing or the file has changed
+     */
+    public synchronized Object read(String path) {
+        if(!file.isFile()) return null;
+        File source = new File(directory, path);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if(!readPreamble(in)) return null;
+                while(true) {
+                    Section section;
+                    try {
+                        section = readHeader(in);
+                    } catch (EOFException e) {
+                        return null;
+                    }
+                    if(section.path.equals(path)) {
+                        if(!section.isValid(source)) return null;
+                        section.data = new byte[section.length];
+                        in.readFully(section.data);
+                        return readValue(new DataInputStream(new ByteArrayInputStream(section.data)), 0);
+                    }
+                    skipFully(in, section.length);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // TRICKY: an unreadable snapshot is simply rebuilt
+            return null;
+        }
+    }
+
+    /**
+     * Replaces a section of the snapshot. Sections for files that have changed are dropped.
+     * Failures are ignored since the snapshot only speeds up loading.
+     *
+     * The snapshot is written to a new temporary file and then renamed so readers never see a partial snapshot.
+     * When several processes write the same snapshot the last one wins and the others' sections are parsed again later.
+     * @param path the path of the source file relative to the container e.g. "package.json"
+     * @param value the parsed file
+     */
+    public synchronized void write(String path, Object value) {
+        File source = new File(directory, path);
+        if(!source.isFile()) return;
+        File temp = null;
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            writeValue(new DataOutputStream(data), value);
+            List<Section> sections = readSections(path);
+
+            if(!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) return;
+            temp = File.createTempFile("snapshot", ".tmp", cacheDirectory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.write(MAGIC);
+                out.writeUTF(containerPath);
+                for(Section section:sections) {
+                    section.write(out);
+                }
+                new Section(path, source.length(), source.lastModified(), System.currentTimeMillis(), data.toByteArray()).write(out);
+            } finally {
+                out.close();
+            }
+            // TRICKY: renaming over an existing file fails on some platforms
+            if(!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                FileUtil.deleteQuietly(temp);
+            }
+        } catch (IOException e) {
+            if(temp != null) FileUtil.deleteQuietly(temp);
+        } catch (JSONException e) {
+            if(temp != null) FileUtil.deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Reads the sections that are still valid
+     * @param exclude the path of a section to leave out
+     * @return
+     */
+    private List<Section> readSections(String exclude) {
+        List<Section> sections = new ArrayList<>();
+        if(!file.isFile()) return sections;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if(!readPreamble(in)) return sections;
+                while(true) {
+                    Section section;
+                    try {
+                        section = readHeader(in);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    section.data = new byte[section.length];
+                    in.readFully(section.data);
+                    if(!section.path.equals(exclude) && section.isValid(new File(directory, section.path))) {
+                        sections.add(section);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // keep the sections that were read
+        }
+        return sections;
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        while(length > 0) {
+            int skipped = in.skipBytes(length);
+            if(skipped <= 0) throw new EOFException("Unexpected end of snapshot");
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Checks that the snapshot is in this format and belongs to the container directory
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    private boolean readPreamble(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        return Arrays.equals(magic, MAGIC) && in.readUTF().equals(containerPath);
+    }
+
+    private Section readHeader(DataInputStream in) throws IOException {
+        Section section = new Section(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), null);
+        section.length = in.readInt();
+        if(section.length < 0 || section.length > file.length()) throw new IOException("Corrupt snapshot");
+        return section;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException, JSONException {
+        if(value == null) {
+            out.writeByte(NULL);
+        } else if(value == JSONObject.NULL) {
+            out.writeByte(JSON_NULL);
+        } else if(value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String)value);
+        } else if(value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer)value);
+        } else if(value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long)value);
+        } else if(value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)value);
+        } else if(value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        } else if(value instanceof JSONObject) {
+            JSONObject json = (JSONObject)value;
+            out.writeByte(JSON_OBJECT);
+            out.writeInt(json.length());
+            // TRICKY: names() is null for an empty object
+            JSONArray names = json.names();
+            for(int i = 0; names != null && i < names.length(); i ++) {
+                String key = names.getString(i);
+                writeString(out, key);
+                writeValue(out, json.get(key));
+            }
+        } else if(value instanceof JSONArray) {
+            JSONArray json = (JSONArray)value;
+            out.writeByte(JSON_ARRAY);
+            out.writeInt(json.length());
+            for(int i = 0; i < json.length(); i ++) {
+                writeValue(out, json.get(i));
+            }
+        } else if(value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for(Map.Entry<?, ?> entry:map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if(value instanceof List) {
+            List<?> list = (List<?>)value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for(Object item:list) {
+                writeValue(out, item);
+            }
+        } else {
+            throw new IOException("Cannot store " + value.getClass().getName() + " in a snapshot");
+        }
+    }
+
+    /**
+     * Reads a value from the data of a section
+     * @param in reads the data of the section from memory
+     * @param depth the number of collections the value is nested in
+     * @return
+     * @throws IOException if the data is corrupt
+     */
+    private static Object readValue(DataInputStream in, int depth) throws IOException {
+        if(depth > MAX_DEPTH) throw new IOException("Corrupt snapshot");
+        int type = in.readByte();
+        switch(type) {
+            case NULL:
+                return null;
+            case JSON_NULL:
+                return JSONObject.NULL;
+            case STRING:
+                return readString(in);
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case JSON_OBJECT: {
+                int size = readLength(in);
+                JSONObject json = new JSONObject();
+                try {
+                    for(int i = 0; i < size; i ++) {
+                        json.put(readString(in), readValue(in, depth + 1));
+                    }
+                } catch (JSONException e) {
+                    throw new IOException("Corrupt snapshot", e);
+                }
+                return json;
+            }
+            case JSON_ARRAY: {
+                int size = readLength(in);
+                JSONArray json = new JSONArray();
+                for(int i = 0; i < size; i ++) {
+                    json.put(readValue(in, depth + 1));
+                }
+                return json;
+            }
+            case MAP: {
+                int size = readLength(in);
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for(int i = 0; i < size; i ++) {
+                    map.put(readValue(in, depth + 1), readValue(in, depth + 1));
+                }
+                return map;
+            }
+            case LIST: {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(size);
+                for(int i = 0; i < size; i ++) {
+                    list.add(readValue(in, depth + 1));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("Corrupt snapshot");
+        }
+    }
+
+    /**
+     * Writes a string of any length. {@link DataOutputStream#writeUTF(String)} is limited to 64K
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Reads the length of a string or the number of items in a collection.
+     * Each byte of a string and each item of a collection takes at least one byte so the length cannot exceed the rest of the section
+     * @param in reads the data of the section from memory
+     * @return
+     * @throws IOException if the length is out of bounds
+     */
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        // TRICKY: the section is read from memory so available() is exactly the number of bytes left
+        if(length < 0 || length > in.available()) throw new IOException("Corrupt snapshot");
+        return length;
+    }
+
+    /**
+     * A parsed file within the snapshot
+     */
+    private static class Section {
+        final String path;
+        final long size;
+        final long modifiedAt;
+        final long writtenAt;
+        byte[] data;
+        int length;
+
+        Section(String path, long size, long modifiedAt, long writtenAt, byte[] data) {
+            this.path = path;
+            this.size = size;
+            this.modifiedAt = modifiedAt;
+            this.writtenAt = writtenAt;
+            this.data = data;
+            this.length = data != null ? data.length : 0;
+        }
+
+        /**
+         * Checks if the source file is unchanged since the section was written.
+         * Like git's racy index check, a file modified just before the section was written is never trusted
+         * @param source
+         * @return
+         */
+        boolean isValid(File source) {
+            return source.length() == size
+                    && source.lastModified() == modifiedAt
+                    && modifiedAt + FileUtil.MODIFIED_TIME_RESOLUTION < writtenAt;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(modifiedAt);
+            out.writeLong(writtenAt);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+}
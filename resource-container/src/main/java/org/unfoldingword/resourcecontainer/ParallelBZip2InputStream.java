@@ -0,0 +1,229 @@
+package org.unfoldingword.resourcecontainer;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses a bzip2 file on several threads.
+ * Each compressed block is decoded independently and the output is returned in order.
+ * This works with the single stream written by {@link ParallelBZip2OutputStream}
+ * as well as files made of concatenated streams such as those written by pbzip2.
+ */
+class ParallelBZip2InputStream extends InputStream {
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+    private static final long MAGIC_MASK = (1L << BZip2Blocks.MAGIC_BITS) - 1;
+
+    private final FileInputStream file;
+    private final FileChannel channel;
+    private final long[] blocks;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<>();
+    private int nextBlock = 0;
+    private byte[] current = new byte[0];
+    private int position = 0;
+    private boolean closed = false;
+
+    /**
+     * @param archive the compressed file
+     * @param blocks the bit positions of the compressed blocks in the file. See {@link #findBlocks(File)}
+     * @param executor the executor on which blocks will be decompressed
+     * @param threads the number of threads in the executor. This limits how many blocks are held in memory.
+     * @throws IOException
+     */
+    public ParallelBZip2InputStream(File archive, long[] blocks, ExecutorService executor, int threads) throws IOException {
+        this.file = new FileInputStream(archive);
+        this.channel = file.getChannel();
+        this.blocks = blocks;
+        this.executor = executor;
+        this.maxPending = Math.max(1, threads) * 2;
+        fillPipeline();
+    }
+
+    /**
+     * Returns the bit positions of the compressed blocks in the file.
+     * Each block is described by a pair of positions: the start of its magic and the start of the
+     * magic that follows it. A file holding a single block returns one pair.
+     *
+     * TRICKY: the block magic could in theory appear inside of compressed data.
+     * Such a false boundary will cause the preceding block to fail decoding.
+     *
+     * @param archive the compressed file
+     * @return the start and end of each block in ascending order
+     * @throws IOException
+     */
+    public static long[] findBlocks(File archive) throws IOException {
+        List<Long> positions = new ArrayList<>();
+        long window = 0;
+        long bit = 0;
+        long blockStart = -1;
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        FileInputStream in = new FileInputStream(archive);
+        try {
+            int n;
+            while((n = in.read(buffer)) != -1) {
+                for(int j = 0; j < n; j ++) {
+                    for(int i = 7; i >= 0; i --) {
+                        window = (window << 1) | ((buffer[j] >>> i) & 1);
+                        bit ++;
+                        long magic = window & MAGIC_MASK;
+                        if(bit < BZip2Blocks.MAGIC_BITS || magic != BZip2Blocks.BLOCK_MAGIC && magic != BZip2Blocks.EOS_MAGIC) continue;
+                        long magicStart = bit - BZip2Blocks.MAGIC_BITS;
+                        if(blockStart >= 0) {
+                            positions.add(blockStart);
+                            positions.add(magicStart);
+                        }
+                        blockStart = magic == BZip2Blocks.BLOCK_MAGIC ? magicStart : -1;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        // a truncated file will fail when the last block is decoded
+        if(blockStart >= 0) {
+            positions.add(blockStart);
+            positions.add(bit);
+        }
+
+        long[] result = new long[positions.size()];
+        for(int i = 0; i < result.length; i ++) {
+            result[i] = positions.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!ensureAvailable()) return -1;
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+        if(!ensureAvailable()) return -1;
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        for(Future<byte[]> f:pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+        file.close();
+    }
+
+    /**
+     * Moves on to the next decompressed block if the current one has been read
+     * @return false if there is no more data
+     * @throws IOException
+     */
+    private boolean ensureAvailable() throws IOException {
+        if(closed) throw new IOException("Stream closed");
+        while(position >= current.length) {
+            if(pending.isEmpty()) return false;
+            Future<byte[]> future = pending.removeFirst();
+            try {
+                current = future.get();
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while decompressing");
+            } catch (ExecutionException e) {
+                if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+                throw new IOException("Failed to decompress block", e.getCause());
+            }
+            fillPipeline();
+        }
+        return true;
+    }
+
+    /**
+     * Queues blocks for decompression until the pipeline is full
+     */
+    private void fillPipeline() {
+        while(pending.size() < maxPending && nextBlock * 2 < blocks.length) {
+            final long start = blocks[nextBlock * 2];
+            final long end = blocks[nextBlock * 2 + 1];
+            nextBlock ++;
+            pending.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return decompress(start, end);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Decompresses a single block by wrapping it in a bzip2 stream of its own
+     * @param start the bit position of the block
+     * @param end the bit position after the block
+     * @return the decompressed bytes
+     * @throws IOException
+     */
+    private byte[] decompress(long start, long end) throws IOException {
+        long offset = start >>> 3;
+        ByteBuffer compressed = ByteBuffer.allocate((int)(((end + 7) >>> 3) - offset));
+        while(compressed.hasRemaining()) {
+            int n = channel.read(compressed, offset + compressed.position());
+            if(n == -1) throw new EOFException("Unexpected end of bzip2 stream");
+        }
+        byte[] data = compressed.array();
+        long blockStart = start - offset * 8;
+        long blockEnd = end - offset * 8;
+        // the combined CRC of a stream with one block is the CRC of the block
+        long crc = BZip2Blocks.readBits(data, blockStart + BZip2Blocks.MAGIC_BITS, BZip2Blocks.CRC_BITS);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(data.length + 16);
+        BZip2Blocks.BitWriter writer = new BZip2Blocks.BitWriter(stream);
+        for(byte b:BZip2Blocks.STREAM_HEADER) {
+            writer.writeBits(8, b);
+        }
+        writer.writeBits(data, blockStart, blockEnd);
+        writer.writeBits(24, BZip2Blocks.EOS_MAGIC >>> 24);
+        writer.writeBits(24, BZip2Blocks.EOS_MAGIC);
+        writer.writeBits(32, crc);
+        writer.flush();
+
+        InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(stream.toByteArray()), false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
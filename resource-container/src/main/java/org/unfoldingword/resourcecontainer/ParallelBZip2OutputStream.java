@@ -0,0 +1,189 @@
+package org.unfoldingword.resourcecontainer;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses a stream with bzip2 on several threads.
+ * The data is split into fixed size segments which are each compressed into a single bzip2 block.
+ * The blocks are written to the output in order within one bzip2 stream so the result
+ * can be read by any bzip2 decoder, including those that stop after the first stream.
+ */
+class ParallelBZip2OutputStream extends OutputStream {
+
+    /**
+     * The largest segment that always fits in a single block.
+     * TRICKY: blocks hold 900 kB after run length encoding which can grow the data by up to a quarter
+     */
+    public static final int MAX_SEGMENT_SIZE = 700 * 1000;
+    public static final int DEFAULT_SEGMENT_SIZE = MAX_SEGMENT_SIZE;
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int segmentSize;
+    private final int maxPending;
+    private final LinkedList<Future<Block>> pending = new LinkedList<>();
+    private final BZip2Blocks.BitWriter writer;
+    private byte[] buffer;
+    private int count = 0;
+    private int combinedCrc = 0;
+    private boolean started = false;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    /**
+     * @param out the stream to which the compressed data will be written
+     * @param executor the executor on which segments will be compressed
+     * @param threads the number of threads in the executor. This limits how many segments are held in memory.
+     */
+    public ParallelBZip2OutputStream(OutputStream out, ExecutorService executor, int threads) {
+        this(out, executor, threads, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param out the stream to which the compressed data will be written
+     * @param executor the executor on which segments will be compressed
+     * @param threads the number of threads in the executor. This limits how many segments are held in memory.
+     * @param segmentSize the number of uncompressed bytes in each bzip2 block. At most {@link #MAX_SEGMENT_SIZE}
+     */
+    ParallelBZip2OutputStream(OutputStream out, ExecutorService executor, int threads, int segmentSize) {
+        if(segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE) throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+        this.out = out;
+        this.writer = new BZip2Blocks.BitWriter(out);
+        this.executor = executor;
+        this.segmentSize = segmentSize;
+        this.maxPending = Math.max(1, threads) * 2;
+        this.buffer = new byte[segmentSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[count++] = (byte) b;
+        if(count == segmentSize) submitSegment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            int n = Math.min(len, segmentSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if(count == segmentSize) submitSegment();
+        }
+    }
+
+    /**
+     * Compresses any buffered data and writes all of the pending segments followed by the end of the stream.
+     * This does not close the underlying stream
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if(finished) return;
+        if(count > 0) submitSegment();
+        while(!pending.isEmpty()) {
+            writeNextSegment();
+        }
+        writeHeader();
+        writer.writeBits(24, BZip2Blocks.EOS_MAGIC >>> 24);
+        writer.writeBits(24, BZip2Blocks.EOS_MAGIC);
+        writer.writeBits(32, combinedCrc);
+        writer.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        try {
+            finish();
+        } finally {
+            for(Future<Block> f:pending) {
+                f.cancel(true);
+            }
+            pending.clear();
+            out.close();
+        }
+    }
+
+    /**
+     * Queues the buffered data for compression.
+     * If too many segments are waiting this will block until the oldest one is written.
+     * @throws IOException
+     */
+    private void submitSegment() throws IOException {
+        final byte[] data = buffer;
+        final int length = count;
+        pending.add(executor.submit(new Callable<Block>() {
+            @Override
+            public Block call() throws Exception {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4);
+                BZip2CompressorOutputStream bzOut = new BZip2CompressorOutputStream(compressed, BZip2Blocks.BLOCK_SIZE);
+                bzOut.write(data, 0, length);
+                bzOut.close();
+                return new Block(compressed.toByteArray(), BZip2Blocks.crc(data, 0, length));
+            }
+        }));
+        buffer = new byte[segmentSize];
+        count = 0;
+
+        while(pending.size() >= maxPending) {
+            writeNextSegment();
+        }
+    }
+
+    /**
+     * Waits for the oldest segment to finish compressing and writes its block
+     * @throws IOException
+     */
+    private void writeNextSegment() throws IOException {
+        Future<Block> future = pending.removeFirst();
+        try {
+            Block block = future.get();
+            // the block is copied out of its own stream, leaving behind the stream header and end of stream
+            long start = BZip2Blocks.STREAM_HEADER.length * 8;
+            long end = BZip2Blocks.findBlockEnd(block.stream, block.crc);
+            writeHeader();
+            writer.writeBits(block.stream, start, end);
+            combinedCrc = BZip2Blocks.combineCrc(combinedCrc, block.crc);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            throw new IOException("Failed to compress segment", e.getCause());
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if(started) return;
+        started = true;
+        for(byte b:BZip2Blocks.STREAM_HEADER) {
+            writer.writeBits(8, b);
+        }
+    }
+
+    /**
+     * A segment compressed as a bzip2 stream with a single block
+     */
+    private static class Block {
+        final byte[] stream;
+        final int crc;
+
+        Block(byte[] stream, int crc) {
+            this.stream = stream;
+            this.crc = crc;
+        }
+    }
+}
@@ -3,26 +3,33 @@ package org.unfoldingword.resourcecontainer;
 import com.esotericsoftware.yamlbeans.YamlException;
 import com.esotericsoftware.yamlbeans.YamlReader;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.unfoldingword.tools.jtar.TarEntry;
 import org.unfoldingword.tools.jtar.TarInputStream;
 import org.unfoldingword.tools.jtar.TarOutputStream;
+import org.unfoldingword.tools.jtar.TarUtils;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Represents an instance of a resource container.
@@ -33,10 +40,29 @@ public class ResourceContainer {
     public static final String fileExtension = "tsrc";
     public static final String baseMimeType = "application/tsrc";
 
+    /**
+     * Parse config.yml and toc.yml when the container is loaded
+     */
+    public static final int PARSE_YAML = 0;
+    /**
+     * Parse config.yml and toc.yml the first time {@link #config()} or {@link #toc()} is called
+     */
+    public static final int LAZY_YAML = 1;
+    /**
+     * Never read config.yml and toc.yml
+     */
+    public static final int SKIP_YAML = 2;
+
     private static final String CONTENT_DIR = "content";
+    // TRICKY: marks a directory opened with a filter. It holds the path of the archive it was opened from
+    private static final String PARTIAL_FILE = ".tsrc-partial";
+    private static volatile ChunkCache chunkCache;
+    private static final Set<String> METADATA_FILES = new HashSet<>(Arrays.asList(
+            "package.json", "LICENSE.md", CONTENT_DIR + "/config.yml", CONTENT_DIR + "/toc.yml"));
 
     /**
-     * Returns the path to the resource container directory
+     * Returns the path to the resource container directory.
+     * If the container was mounted this is the path to the archive.
      */
     public final File path;
 
@@ -49,16 +75,27 @@ public class ResourceContainer {
     /**
      * Returns the resource container data configuration.
      * This is the config.yml file under the content/ directory
+     * @deprecated use {@link #config()}. This is null if the container was loaded with {@link #LAZY_YAML}
      */
+    @Deprecated
     public final Map config;
 
     /**
      * Returns the table of contents.
      * This is the toc.yml file under the content/ directory.
      * This can be a list or a map.
+     * @deprecated use {@link #toc()}. This is null if the container was loaded with {@link #LAZY_YAML}
      */
+    @Deprecated
     public final Object toc;
 
+    // TRICKY: with LAZY_YAML the yaml files are parsed the first time they are used. See config() and toc()
+    private volatile Map<?, ?> parsedConfig;
+    private volatile Object parsedToc;
+    private volatile ContentIndex index;
+    private volatile String canonicalPath;
+    private final int yamlMode;
+
     /**
      * Returns the slug of the resource container
      */
@@ -89,15 +126,24 @@ public class ResourceContainer {
      */
     public final String contentMimeType;
 
+    private final ContainerSource source;
+    private final MetadataSnapshot snapshot;
+
     /**
      * Instantiates a new resource container object
-     * @param containerDirectory the directory of the resource container
+     * @param containerPath the directory or archive of the resource container
      * @param containerInfo the resource container info (package.json)
+     * @param source provides access to the files in the resource container
+     * @param snapshot caches the parsed yaml files. This may be null
+     * @param yamlMode when config.yml and toc.yml are read. One of {@link #PARSE_YAML}, {@link #LAZY_YAML} or {@link #SKIP_YAML}
      * @throws JSONException
      */
-    private ResourceContainer(File containerDirectory, JSONObject containerInfo) throws JSONException {
-        this.path = containerDirectory;
+    private ResourceContainer(File containerPath, JSONObject containerInfo, ContainerSource source, MetadataSnapshot snapshot, int yamlMode) throws JSONException {
+        this.path = containerPath;
         this.info = containerInfo;
+        this.source = source;
+        this.snapshot = snapshot;
+        this.yamlMode = yamlMode;
         this.modifiedAt = info.getInt("modified_at");
         this.contentMimeType = info.getString("content_mime_type");
         this.language = Language.fromJSON(containerInfo.getJSONObject("language"));
@@ -107,36 +153,93 @@ public class ResourceContainer {
         this.resource.projectSlug = project.slug;
         this.slug = ContainerTools.makeSlug(language.slug, project.slug, resource.slug);
 
-        // load config
-        File configFile = new File(containerDirectory, CONTENT_DIR + "/config.yml");
-        Map tempConfig = null;
-        try {
-            YamlReader reader = new YamlReader(new FileReader(configFile));
-            Object object = reader.read();
-            tempConfig = (Map)object;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (YamlException e) {
-            e.printStackTrace();
-        } finally {
-            if(tempConfig == null) tempConfig = new HashMap();
+        if(yamlMode == LAZY_YAML) {
+            this.config = null;
+            this.toc = null;
+        } else {
+            this.config = config();
+            this.toc = toc();
         }
-        this.config = tempConfig;
+    }
 
-        // load toc
-        File tocFile = new File(containerDirectory, CONTENT_DIR + "/toc.yml");
-        Object tempToc = null;
+    /**
+     * Returns the resource container data configuration.
+     * This is the config.yml file under the content/ directory.
+     * If the container was loaded with {@link #LAZY_YAML} the file is parsed the first time this is called.
+     * Mounted containers must not be unmounted before then.
+     * @return the configuration or an empty map if there is none
+     */
+    public Map<?, ?> config() {
+        Map<?, ?> result = parsedConfig;
+        if(result == null) {
+            synchronized (this) {
+                result = parsedConfig;
+                if(result == null) {
+                    Object yaml = yamlMode == SKIP_YAML ? null : readMetadata(CONTENT_DIR + "/config.yml");
+                    result = yaml instanceof Map ? (Map<?, ?>)yaml : new HashMap<Object, Object>();
+                    parsedConfig = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the table of contents.
+     * This is the toc.yml file under the content/ directory.
+     * This can be a list or a map.
+     * If the container was loaded with {@link #LAZY_YAML} the file is parsed the first time this is called.
+     * Mounted containers must not be unmounted before then.
+     * @return the table of contents or an empty map if there is none
+     */
+    public Object toc() {
+        Object result = parsedToc;
+        if(result == null) {
+            synchronized (this) {
+                result = parsedToc;
+                if(result == null) {
+                    Object yaml = yamlMode == SKIP_YAML ? null : readMetadata(CONTENT_DIR + "/toc.yml");
+                    result = yaml != null ? yaml : new HashMap<Object, Object>();
+                    parsedToc = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads a yaml file from the snapshot or parses it and updates the snapshot
+     * @param path the path to the file relative to the container
+     * @return the parsed object or null if the file could not be read
+     */
+    private Object readMetadata(String path) {
+        Object value = snapshot != null ? snapshot.read(path) : null;
+        if(value == null) {
+            value = readYaml(path);
+            if(value != null && snapshot != null) snapshot.write(path, value);
+        }
+        return value;
+    }
+
+    /**
+     * Parses a yaml file in the resource container
+     * @param path the path to the file relative to the container
+     * @return the parsed object or null if the file could not be read
+     */
+    private Object readYaml(String path) {
+        Reader fileReader = null;
         try {
-            YamlReader reader = new YamlReader(new FileReader(tocFile));
-            tempToc = reader.read();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            fileReader = new InputStreamReader(source.open(path));
+            YamlReader reader = new YamlReader(fileReader);
+            return reader.read();
         } catch (YamlException e) {
             e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
         } finally {
-            if(tempToc == null) tempToc = new HashMap();
+            if(fileReader != null) FileUtil.closeQuietly(fileReader);
         }
-        this.toc = tempToc;
+        return null;
     }
 
     /**
@@ -147,16 +250,135 @@ public class ResourceContainer {
      * @return
      */
     public static ResourceContainer load(File containerDirectory) throws Exception {
+        return load(containerDirectory, PARSE_YAML);
+    }
+
+    /**
+     * Loads a resource container from the disk.
+     * The yaml files may be very large so they can be parsed when they are first used or skipped
+     * by code that only needs the package information.
+     * @param containerDirectory
+     * @param yamlMode when config.yml and toc.yml are read. One of {@link #PARSE_YAML}, {@link #LAZY_YAML} or {@link #SKIP_YAML}
+     * @throws Exception
+     * @return
+     */
+    public static ResourceContainer load(File containerDirectory, int yamlMode) throws Exception {
+        return load(containerDirectory, yamlMode, null);
+    }
+
+    /**
+     * Loads a resource container from the disk.
+     * The parsed metadata is kept in a snapshot within the cache directory so later loads do not have to parse it again.
+     * The container directory itself is never written to.
+     * See {@link #load(File, int)}
+     * @param containerDirectory
+     * @param yamlMode when config.yml and toc.yml are read. One of {@link #PARSE_YAML}, {@link #LAZY_YAML} or {@link #SKIP_YAML}
+     * @param snapshotDirectory the directory where metadata snapshots are kept. If null no snapshot is used
+     * @throws Exception
+     * @return
+     */
+    public static ResourceContainer load(File containerDirectory, int yamlMode, File snapshotDirectory) throws Exception {
         if(!containerDirectory.exists()) throw new Exception("The resource container does not exist");
         if(!containerDirectory.isDirectory()) throw new Exception("Not an open resource container");
         File packageFile = new File(containerDirectory, "package.json");
         if(!packageFile.exists()) throw new Exception("Not a resource container");
-        JSONObject packageJson = new JSONObject(FileUtil.readFileToString(packageFile));
+
+        MetadataSnapshot snapshot = null;
+        JSONObject packageJson;
+        if(snapshotDirectory != null) {
+            snapshot = new MetadataSnapshot(containerDirectory, snapshotDirectory);
+            Object cachedPackage = snapshot.read("package.json");
+            if(cachedPackage instanceof JSONObject) {
+                packageJson = validatePackage((JSONObject)cachedPackage);
+            } else {
+                packageJson = parsePackage(FileUtil.readFileToString(packageFile));
+                snapshot.write("package.json", packageJson);
+            }
+        } else {
+            packageJson = parsePackage(FileUtil.readFileToString(packageFile));
+        }
+
+        return new ResourceContainer(containerDirectory, packageJson, new DirectorySource(containerDirectory), snapshot, yamlMode);
+    }
+
+    /**
+     * Loads a resource container directly from an archive without extracting it.
+     * This supports indexed archives (see {@link #closeIndexed(File)}) and uncompressed
+     * tar archives (see {@link #close(File, ArchiveCodec)} with {@link ArchiveCodecs#NONE}).
+     * Uncompressed tar archives are mapped into memory.
+     *
+     * The archive is held open until {@link #unmount()} is called.
+     * @param containerArchive
+     * @throws Exception
+     * @return
+     */
+    public static ResourceContainer mount(File containerArchive) throws Exception {
+        return mount(containerArchive, PARSE_YAML);
+    }
+
+    /**
+     * Loads a resource container directly from an archive without extracting it.
+     * See {@link #mount(File)}
+     * @param containerArchive
+     * @param yamlMode when config.yml and toc.yml are read. One of {@link #PARSE_YAML}, {@link #LAZY_YAML} or {@link #SKIP_YAML}
+     * @throws Exception
+     * @return
+     */
+    public static ResourceContainer mount(File containerArchive, int yamlMode) throws Exception {
+        if(!containerArchive.exists()) throw new Exception("Missing resource container");
+        ContainerSource source;
+        if(IndexedArchive.isIndexed(containerArchive)) {
+            source = IndexedArchive.open(containerArchive);
+        } else if(ArchiveCodecs.detect(containerArchive) == ArchiveCodecs.NONE) {
+            source = new MappedTarSource(containerArchive);
+        } else {
+            throw new Exception("Compressed resource containers cannot be mounted");
+        }
+
+        InputStream in = null;
+        try {
+            if(!source.isFile("package.json")) throw new Exception("Not a resource container");
+            in = source.open("package.json");
+            JSONObject packageJson = parsePackage(FileUtil.readStreamToString(in));
+            return new ResourceContainer(containerArchive, packageJson, source, null, yamlMode);
+        } catch (Exception e) {
+            source.close();
+            throw e;
+        } finally {
+            if(in != null) FileUtil.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Releases the archive of a mounted resource container.
+     * This has no effect on containers loaded from a directory.
+     * @throws IOException
+     */
+    public void unmount() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Parses and validates the package information
+     * @param packageData the contents of package.json
+     * @return
+     * @throws Exception if the container is not supported
+     */
+    static JSONObject parsePackage(String packageData) throws Exception {
+        return validatePackage(new JSONObject(packageData));
+    }
+
+    /**
+     * Validates the package information
+     * @param packageJson
+     * @return the package information
+     * @throws Exception if the container is not supported
+     */
+    private static JSONObject validatePackage(JSONObject packageJson) throws Exception {
         if(!packageJson.has("package_version")) throw new Exception("Not a resource container");
         if(Semver.gt(packageJson.getString("package_version"), ResourceContainer.version)) throw new Exception("Unsupported container version");
         if(Semver.lt(packageJson.getString("package_version"), ResourceContainer.version)) throw new Exception("Outdated container version");
-
-        return new ResourceContainer(containerDirectory, packageJson);
+        return packageJson;
     }
 
     /**
@@ -183,22 +405,223 @@ public class ResourceContainer {
      * @return
      */
     public static ResourceContainer open(File containerArchive, File containerDirectory) throws Exception {
-        if(containerDirectory.exists()) return load(containerDirectory);
+        return open(containerArchive, containerDirectory, 1);
+    }
 
-        if(!containerArchive.exists()) throw new Exception("Missing resource container");
+    /**
+     * Opens an archived resource container.
+     * If the container is already opened it will be loaded.
+     * When more than one thread is used bzip2 archives with more than one block
+     * (see {@link #close(File, int)}) are decompressed in parallel
+     * and the files of uncompressed tars are extracted in parallel.
+     * @param containerArchive
+     * @param containerDirectory
+     * @param threads the number of threads used for decompression
+     * @throws Exception
+     * @return
+     */
+    public static ResourceContainer open(File containerArchive, File containerDirectory, int threads) throws Exception {
+        return open(containerArchive, containerDirectory, null, threads, null);
+    }
+
+    /**
+     * Opens only the selected entries of an archived resource container.
+     * The container metadata (package.json, LICENSE.md, content/config.yml and content/toc.yml) is always extracted.
+     *
+     * If the container is already opened any selected entries that are missing from the directory
+     * will be extracted so additional chapters can be opened later.
+     *
+     * The directory remembers the archive it was opened from. When the container is closed the entries
+     * that were not selected are extracted from that archive first so they are not lost.
+     * Opening the container again without a filter extracts them as well.
+     * @param containerArchive
+     * @param containerDirectory
+     * @param filter selects the entries to extract. See {@link EntryFilter#chapters(String...)}
+     * @throws Exception
+     * @return
+     */
+    public static ResourceContainer open(File containerArchive, File containerDirectory, EntryFilter filter) throws Exception {
+        return open(containerArchive, containerDirectory, filter, 1, null);
+    }
+
+    /**
+     * Opens an archived resource container.
+     * When more than one thread is used the files of tar archives are written to the disk on
+     * separate threads while the archive is decoded.
+     * @param containerArchive
+     * @param containerDirectory
+     * @param filter selects the entries to extract. If null the entire archive is extracted
+     * @param threads the number of threads used for decompression and extraction
+     * @param stats receives statistics about the extraction of tar archives. This may be null
+     * @return
+     * @throws Exception
+     */
+    public static ResourceContainer open(File containerArchive, File containerDirectory, EntryFilter filter, int threads, ExtractStats stats) throws Exception {
+        boolean opened = containerDirectory.exists();
+        File partialFile = new File(containerDirectory, PARTIAL_FILE);
+        if(opened && filter == null && (containerArchive == null || !partialFile.exists())) return load(containerDirectory);
+
+        if(containerArchive == null || !containerArchive.exists()) throw new Exception("Missing resource container");
+
+        EntryFilter entryFilter = selectEntries(filter, opened ? containerDirectory : null);
+        try {
+            extractArchive(containerArchive, containerDirectory, entryFilter, threads, stats, opened);
+            if(filter != null && !opened) {
+                FileUtil.writeStringToFile(partialFile, containerArchive.getAbsolutePath());
+            } else if(filter == null && partialFile.exists() && !partialFile.delete()) {
+                throw new Exception("Failed to mark the resource container as fully opened");
+            }
+        } catch (Exception e) {
+            if(!opened) FileUtil.deleteQuietly(containerDirectory);
+            throw e;
+        }
+
+        return load(containerDirectory);
+    }
+
+    /**
+     * Extracts the selected entries of an archive
+     * @param containerArchive
+     * @param containerDirectory
+     * @param filter selects the entries to extract
+     * @param threads the number of threads used for decompression and extraction
+     * @param stats receives statistics about the extraction of tar archives. This may be null
+     * @param opened true if the directory existed before the extraction and must be kept if it fails
+     * @throws Exception
+     */
+    private static void extractArchive(File containerArchive, File containerDirectory, EntryFilter filter, int threads, ExtractStats stats, boolean opened) throws Exception {
+        if(IndexedArchive.isIndexed(containerArchive)) {
+            extractIndexed(containerArchive, containerDirectory, filter);
+            return;
+        }
+        try {
+            extract(containerArchive, containerDirectory, filter, threads, stats);
+        } catch (Exception e) {
+            // TRICKY: a corrupt archive will fail here as well and report the error
+            if(!opened) FileUtil.deleteQuietly(containerDirectory);
+            extractViaTempFile(containerArchive, containerDirectory, filter, stats);
+        }
+    }
+
+    /**
+     * Extracts the entries that were left out when a container was opened with a filter
+     * so the directory can be archived without losing them.
+     * See {@link #open(File, File, EntryFilter, int, ExtractStats)}
+     * @param containerDirectory
+     * @throws Exception if the archive the container was opened from is missing
+     */
+    private static void restoreUnselectedEntries(File containerDirectory) throws Exception {
+        File partialFile = new File(containerDirectory, PARTIAL_FILE);
+        if(!partialFile.isFile()) return;
+        File source = new File(FileUtil.readFileToString(partialFile).trim());
+        if(!source.isFile()) {
+            throw new Exception("The resource container was partially opened from " + source + " which is missing");
+        }
+        extractArchive(source, containerDirectory, selectEntries(null, containerDirectory), 1, null, true);
+        if(!partialFile.delete()) throw new Exception("Failed to mark the resource container as fully opened");
+    }
+
+    /**
+     * Wraps an entry filter so the container metadata is always selected
+     * and files that have already been extracted are skipped.
+     * @param filter the entries to select. If null all entries are selected
+     * @param containerDirectory the opened container or null
+     * @return
+     */
+    private static EntryFilter selectEntries(final EntryFilter filter, final File containerDirectory) {
+        return new EntryFilter() {
+            @Override
+            public boolean accept(String entryName) {
+                if(containerDirectory != null && new File(containerDirectory, entryName).exists()) return false;
+                return filter == null || METADATA_FILES.contains(entryName) || filter.accept(entryName);
+            }
+        };
+    }
+
+    /**
+     * Decompresses and un-packs the archive in a single pass.
+     * The tar stream is extracted as it is decoded so no intermediate file is written to the disk.
+     * Uncompressed tars are extracted concurrently when more than one thread is used.
+     * @param containerArchive
+     * @param containerDirectory
+     * @param filter selects the entries to extract. May be null
+     * @param threads the number of threads used for decompression and extraction
+     * @param stats receives statistics about the extraction. May be null
+     * @throws Exception
+     */
+    private static void extract(File containerArchive, File containerDirectory, EntryFilter filter, int threads, ExtractStats stats) throws Exception {
+        ExecutorService executor = null;
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(containerArchive));
+            ArchiveCodec codec = detectCodec(in);
+            if(codec == ArchiveCodecs.NONE) {
+                // uncompressed tars are read with positional reads
+                in.close();
+                in = null;
+                containerDirectory.mkdirs();
+                TarUtil.untar(containerArchive, containerDirectory.getAbsolutePath(), filter, threads, stats);
+                return;
+            }
+            long[] blocks = threads > 1 && codec == ArchiveCodecs.BZIP2 ? ParallelBZip2InputStream.findBlocks(containerArchive) : new long[0];
+            // each block is a pair of positions
+            if(blocks.length > 2) {
+                in.close();
+                executor = Executors.newFixedThreadPool(threads);
+                in = new ParallelBZip2InputStream(containerArchive, blocks, executor, threads);
+            } else {
+                in = codec.decompress(in);
+            }
+            TarInputStream tin = new TarInputStream(new BufferedInputStream(in));
+            in = tin;
+            containerDirectory.mkdirs();
+            TarUtil.untar(tin, containerDirectory.getAbsolutePath(), filter, threads, stats);
+        } finally {
+            if(in != null) in.close();
+            if(executor != null) executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Extracts an indexed archive
+     * @param containerArchive
+     * @param containerDirectory
+     * @param filter selects the entries to extract. May be null
+     * @throws Exception
+     */
+    private static void extractIndexed(File containerArchive, File containerDirectory, EntryFilter filter) throws Exception {
+        IndexedArchive archive = IndexedArchive.open(containerArchive);
+        try {
+            containerDirectory.mkdirs();
+            archive.extract(containerDirectory, filter);
+        } finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * Decompresses the archive to a temporary tar on the disk and then un-packs it.
+     * This is slower than {@link #extract(File, File, EntryFilter, int, ExtractStats)} and requires free space equal to
+     * the uncompressed size of the archive so it is only used as a fallback.
+     * @param containerArchive
+     * @param containerDirectory
+     * @param filter selects the entries to extract. May be null
+     * @param stats receives statistics about the extraction. May be null
+     * @throws Exception
+     */
+    private static void extractViaTempFile(File containerArchive, File containerDirectory, EntryFilter filter, ExtractStats stats) throws Exception {
         File tempFile = new File(containerArchive + ".tmp.tar");
         FileOutputStream out = null;
-        BZip2CompressorInputStream bzIn = null;
+        InputStream in = null;
 
-        // decompress bzip2
+        // decompress
         try {
-            FileInputStream fin = new FileInputStream(containerArchive);
-            BufferedInputStream in = new BufferedInputStream(fin);
+            in = new BufferedInputStream(new FileInputStream(containerArchive));
+            in = detectCodec(in).decompress(in);
             out = new FileOutputStream(tempFile);
-            bzIn = new BZip2CompressorInputStream(in);
             int n;
             final byte[] buffer = new byte[2048];
-            while ((n = bzIn.read(buffer)) != -1) {
+            while ((n = in.read(buffer)) != -1) {
                 out.write(buffer, 0, n);
             }
         } catch (Exception e) {
@@ -206,127 +629,394 @@ public class ResourceContainer {
             throw e;
         } finally {
             if(out != null) out.close();
-            if(bzIn != null) bzIn.close();
+            if(in != null) in.close();
         }
 
         // un-pack
         FileInputStream fin = new FileInputStream(tempFile);
-        BufferedInputStream in = new BufferedInputStream(fin);
-        TarInputStream tin = new TarInputStream(in);
+        BufferedInputStream bin = new BufferedInputStream(fin);
+        TarInputStream tin = new TarInputStream(bin);
         try {
             containerDirectory.mkdirs();
-            TarUtil.untar(tin, containerDirectory.getAbsolutePath());
-        } catch (Exception e) {
-            FileUtil.deleteQuietly(containerDirectory);
-            throw e;
+            TarUtil.untar(tin, containerDirectory.getAbsolutePath(), filter, 1, stats);
         } finally {
             tin.close();
             FileUtil.deleteQuietly(tempFile);
         }
+    }
 
-        return load(containerDirectory);
+    /**
+     * Identifies the compression of an archive
+     * @param in a stream that supports mark/reset
+     * @return the codec
+     * @throws Exception if the codec is not recognized or not available
+     */
+    private static ArchiveCodec detectCodec(InputStream in) throws Exception {
+        ArchiveCodec codec = ArchiveCodecs.detect(in);
+        if(codec == null) throw new Exception("Unsupported archive format");
+        if(!codec.isAvailable()) throw new Exception("The " + codec.getName() + " codec is not available");
+        return codec;
     }
 
     /**
      * Closes (archives) a resource container.
+     * The tar stream is compressed as it is written so no intermediate file is written to the disk.
      * @param containerDirectory
      * @return the path to the resource container archive
      * @throws Exception
      */
     public static File close(File containerDirectory) throws Exception {
+        return close(containerDirectory, ArchiveCodecs.BZIP2, 1);
+    }
+
+    /**
+     * Closes (archives) a resource container.
+     * When more than one thread is used the archive is compressed in segments on a thread pool.
+     * Each segment is compressed into a separate block of a single bzip2 stream so the archive
+     * can be read by any bzip2 decoder
+     * @param containerDirectory
+     * @param threads the number of threads used for compression
+     * @return the path to the resource container archive
+     * @throws Exception
+     */
+    public static File close(File containerDirectory, int threads) throws Exception {
+        return close(containerDirectory, ArchiveCodecs.BZIP2, threads);
+    }
+
+    /**
+     * Closes (archives) a resource container with the given compression.
+     * The codec is detected automatically when the archive is opened.
+     * @param containerDirectory
+     * @param codec the compression to use. See {@link ArchiveCodecs}
+     * @return the path to the resource container archive
+     * @throws Exception
+     */
+    public static File close(File containerDirectory, ArchiveCodec codec) throws Exception {
+        return close(containerDirectory, codec, 1);
+    }
+
+    /**
+     * Closes (archives) a resource container with the given compression.
+     * Only {@link ArchiveCodecs#BZIP2} is compressed in parallel.
+     * With any codec more than one thread also reads the files ahead of the archive.
+     *
+     * A manifest of the file sizes and modification times is stored in the archive.
+     * If the container has not changed since it was last closed the existing archive is returned.
+     * @param containerDirectory
+     * @param codec the compression to use. See {@link ArchiveCodecs}
+     * @param threads the number of threads used for compression and reading the files
+     * @return the path to the resource container archive
+     * @throws Exception
+     */
+    public static File close(File containerDirectory, ArchiveCodec codec, int threads) throws Exception {
+        return close(containerDirectory, codec, threads, null);
+    }
+
+    /**
+     * Closes (archives) a resource container with the given compression.
+     * See {@link #close(File, ArchiveCodec, int)}
+     * @param containerDirectory
+     * @param codec the compression to use. See {@link ArchiveCodecs}
+     * @param threads the number of threads used for compression and reading the files
+     * @param stats receives statistics about the archive. This may be null
+     * @return the path to the resource container archive
+     * @throws Exception
+     */
+    public static File close(File containerDirectory, ArchiveCodec codec, int threads, CloseStats stats) throws Exception {
         if(!containerDirectory.exists()) throw new Exception("Missing resource container");
-        // pack
-        File tempFile = new File(containerDirectory.getAbsolutePath() + ".tmp.tar");
-        TarOutputStream tout = new TarOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        if(!codec.isAvailable()) throw new Exception("The " + codec.getName() + " codec is not available");
+        restoreUnselectedEntries(containerDirectory);
+
+        File archive = new File(containerDirectory.getAbsolutePath() + "." + ResourceContainer.fileExtension);
+        // TRICKY: the directory is walked once. The manifest and the tar headers are built from the same entries
+        long createdAt = System.currentTimeMillis() / 1000;
+        List<TarEntry> entries = TarUtil.list(null, containerDirectory.getAbsolutePath(), null);
+        ContainerManifest manifest = ContainerManifest.fromEntries(codec.getName(), createdAt, entries);
+        if(isArchived(archive, manifest, false)) {
+            if(stats != null) stats.upToDate = true;
+            return archive;
+        }
+        byte[] manifestRecords = manifest.toPaxRecords();
+
+        long tarSize = -1;
+        if(codec == ArchiveCodecs.NONE) {
+            // TRICKY: an uncompressed archive is exactly the size of the tar so the space is reserved up front
+            tarSize = TarUtils.calculateTarSize(entries) + TarUtils.calculateEntrySize(manifestRecords.length);
+        }
+        FileOutputStream fileOut = openArchive(archive, tarSize);
+        CountingOutputStream out = null;
+        ExecutorService executor = null;
+        TarOutputStream tout = null;
+
+        // pack and compress
         try {
-            TarUtil.tar(null, containerDirectory.getAbsolutePath(), tout);
+            if(codec == ArchiveCodecs.NONE) {
+                tout = new TarOutputStream(fileOut);
+            } else if(threads > 1 && codec == ArchiveCodecs.BZIP2) {
+                out = new CountingOutputStream(new BufferedOutputStream(fileOut));
+                executor = Executors.newFixedThreadPool(threads);
+                tout = new TarOutputStream(new ParallelBZip2OutputStream(out, executor, threads));
+            } else {
+                out = new CountingOutputStream(new BufferedOutputStream(fileOut));
+                tout = new TarOutputStream(codec.compress(out));
+            }
+            // TRICKY: the manifest and package.json go first so they can be read without decompressing the entire archive.
+            // package.json is always listed first
+            TarUtil.putGlobalHeader(manifestRecords, tout);
+            TarUtil.tar(entries, tout, threads);
+            tout.close();
+            if(tout.getBytesWritten() < tarSize) truncate(archive, tout.getBytesWritten());
         } catch(Exception e) {
-            FileUtil.deleteQuietly(tempFile);
+            FileUtil.closeQuietly(fileOut);
+            FileUtil.deleteQuietly(archive);
             throw e;
         } finally {
-            tout.close();
+            if(executor != null) executor.shutdownNow();
         }
 
-        // compress
-        File archive = new File(containerDirectory.getAbsolutePath() + "." + ResourceContainer.fileExtension);
-        BZip2CompressorOutputStream bzOut = null;
-        BufferedInputStream in = null;
+        if(stats != null) {
+            stats.bytes = tout.getBytesWritten();
+            stats.archiveBytes = out != null ? out.getBytesWritten() : tout.getBytesWritten();
+        }
+        return archive;
+    }
 
+    /**
+     * Opens an archive for writing
+     * @param archive
+     * @param size the expected size of the archive or -1 if it is not known. The space is reserved before writing
+     * @return a stream that also closes the file used to reserve the space
+     * @throws IOException
+     */
+    private static FileOutputStream openArchive(File archive, long size) throws IOException {
+        if(size < 0) return new FileOutputStream(archive);
+        final RandomAccessFile file = new RandomAccessFile(archive, "rw");
         try {
-            FileInputStream fin = new FileInputStream(tempFile);
-            in = new BufferedInputStream(fin);
-            FileOutputStream out = new FileOutputStream(archive);
-            bzOut = new BZip2CompressorOutputStream(out);
-            int n;
-            byte buffer[] = new byte[2048];
-            while ((n = in.read(buffer)) != -1) {
-                bzOut.write(buffer, 0, n);
-            }
-            bzOut.close();
-            in.close();
-        } catch(Exception e) {
-            FileUtil.deleteQuietly(archive);
+            file.setLength(size);
+            return new FileOutputStream(file.getFD()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        file.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            file.close();
             throw e;
+        }
+    }
+
+    /**
+     * Cuts an archive to its actual size when files shrank after the directory was listed
+     * @param archive
+     * @param size
+     * @throws IOException
+     */
+    private static void truncate(File archive, long size) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            file.setLength(size);
         } finally {
-            if(bzOut != null) bzOut.close();
-            if(in != null) in.close();
-            FileUtil.deleteQuietly(tempFile);
+            file.close();
         }
+    }
 
+    /**
+     * Closes (archives) a resource container as an indexed archive.
+     * Each file is compressed independently so the archive can be read with {@link #mount(File)}
+     * without being extracted. Indexed archives can also be extracted with {@link #open(File, File)}.
+     * @param containerDirectory
+     * @return the path to the resource container archive
+     * @throws Exception
+     */
+    public static File closeIndexed(File containerDirectory) throws Exception {
+        return closeIndexed(containerDirectory, ArchiveCodecs.DEFLATE);
+    }
+
+    /**
+     * Closes (archives) a resource container as an indexed archive.
+     * If the container has not changed since it was last closed the existing archive is returned.
+     * Otherwise only the files that changed are compressed again.
+     * @param containerDirectory
+     * @param codec the codec used to compress each file
+     * @return the path to the resource container archive
+     * @throws Exception
+     */
+    public static File closeIndexed(File containerDirectory, ArchiveCodec codec) throws Exception {
+        if(!containerDirectory.exists()) throw new Exception("Missing resource container");
+        if(!codec.isAvailable()) throw new Exception("The " + codec.getName() + " codec is not available");
+        restoreUnselectedEntries(containerDirectory);
+
+        File archive = new File(containerDirectory.getAbsolutePath() + "." + ResourceContainer.fileExtension);
+        ContainerManifest manifest = ContainerManifest.scan(containerDirectory, codec.getName());
+        if(isArchived(archive, manifest, true)) return archive;
+
+        // unchanged files are copied from the previous archive
+        File tempArchive = new File(archive.getAbsolutePath() + ".tmp");
+        IndexedArchive previous = IndexedArchive.isIndexed(archive) ? IndexedArchive.open(archive) : null;
+        try {
+            IndexedArchive.write(containerDirectory, tempArchive, codec, manifest, previous);
+        } catch (Exception e) {
+            FileUtil.deleteQuietly(tempArchive);
+            throw e;
+        } finally {
+            if(previous != null) previous.close();
+        }
+        if(archive.exists() && !archive.delete() || !tempArchive.renameTo(archive)) {
+            FileUtil.deleteQuietly(tempArchive);
+            throw new Exception("Failed to replace " + archive);
+        }
         return archive;
     }
 
     /**
-     * Returns an un-ordered list of chapter slugs in this resource container
+     * Checks if the archive already holds the current contents of the container in the requested format
+     * @param archive
+     * @param manifest the manifest of the container directory
+     * @param indexed true if an indexed archive is requested and false if a tar is requested
+     * @return
+     */
+    private static boolean isArchived(File archive, ContainerManifest manifest, boolean indexed) {
+        // TRICKY: the manifest only records the codec so the two formats are told apart by the archive itself
+        if(IndexedArchive.isIndexed(archive) != indexed) return false;
+        ContainerManifest archived = ContainerManifest.read(archive);
+        return archived != null && archived.matches(manifest);
+    }
+
+    /**
+     * Returns the chapter slugs in this resource container.
+     * The chapters are in the order of the table of contents. Chapters that are not in it follow in natural order
      * @return
      */
     public String[] chapters() {
-        String[] chapters = (new File(path, CONTENT_DIR)).list(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String filename) {
-                return new File(dir, filename).isDirectory() && !filename.equals("config.yml") && !filename.equals("toc.yml");
-            }
-        });
-        if(chapters == null) chapters = new String[0];
-        return chapters;
+        return index().chapters();
     }
 
     /**
-     * Returns an un-ordered list of chunk slugs in the chapter
+     * Returns the chunk slugs in the chapter.
+     * The chunks are in the order of the table of contents. Chunks that are not in it follow in natural order
      * @param chapterSlug
      * @return
      */
     public String[] chunks(String chapterSlug) {
-        final List<String> chunks = new ArrayList<>();
-        (new File(new File(path, CONTENT_DIR), chapterSlug)).list(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String filename) {
-                chunks.add(filename.split("\\.")[0]);
-                return false;
+        return index().chunks(chapterSlug);
+    }
+
+    /**
+     * Discards the chapters and chunks that were listed from the content directory.
+     * This must be called after adding or removing chapters or chunks on the disk.
+     */
+    public void invalidateIndex() {
+        index = null;
+    }
+
+    /**
+     * Returns the index of the chapters and chunks, listing the content directory the first time
+     * @return
+     */
+    private ContentIndex index() {
+        ContentIndex result = index;
+        if(result == null) {
+            synchronized (this) {
+                result = index;
+                if(result == null) {
+                    result = new ContentIndex(source, CONTENT_DIR, toc());
+                    index = result;
+                }
             }
-        });
-        return chunks.toArray(new String[chunks.size()]);
+        }
+        return result;
     }
 
     /**
      * Returns the contents of a chunk.
-     * If the chunk does not exist or there is an exception an empty string will be returned
+     * If the chunk does not exist or there is an exception an empty string will be returned.
+     * When a chunk cache is set (see {@link #setChunkCache(ChunkCache)}) the chunk is only read
+     * if it is not cached or its modification time or length has changed
      * @param chapterSlug
      * @param chunkSlug
      * @return
      */
     public String readChunk(String chapterSlug, String chunkSlug) {
-        File chunkFile = new File(new File(new File(path, CONTENT_DIR), chapterSlug), chunkSlug + "." + chunkExt());
-        if(chunkFile.exists() && chunkFile.isFile()) {
+        String chunkPath = CONTENT_DIR + "/" + chapterSlug + "/" + chunkSlug + "." + chunkExt();
+        ChunkCache cache = chunkCache;
+        if(cache != null) {
+            long modifiedAt = source.lastModified(chunkPath);
+            if(modifiedAt == 0) return "";
+            long length = source.length(chunkPath);
+            String key;
+            try {
+                key = canonicalPath() + "/" + chunkPath;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return readChunkFile(chunkPath);
+            }
+            String content = cache.get(key, modifiedAt, length);
+            if(content != null) return content;
+            content = readChunkFile(chunkPath);
+            // TRICKY: a chunk changed again within the same modification time could only be detected by its length
+            if(!content.isEmpty() && modifiedAt + FileUtil.MODIFIED_TIME_RESOLUTION < System.currentTimeMillis()) {
+                cache.put(key, modifiedAt, length, content);
+            }
+            return content;
+        }
+        return readChunkFile(chunkPath);
+    }
+
+    /**
+     * Returns the canonical path of the container so the same container
+     * shares cached chunks however its path was given
+     * @return
+     * @throws IOException
+     */
+    private String canonicalPath() throws IOException {
+        String result = canonicalPath;
+        if(result == null) {
+            result = path.getCanonicalPath();
+            canonicalPath = result;
+        }
+        return result;
+    }
+
+    /**
+     * Reads a chunk file
+     * @param chunkPath
+     * @return the contents or an empty string if the file does not exist or there is an exception
+     */
+    private String readChunkFile(String chunkPath) {
+        if(source.isFile(chunkPath)) {
+            InputStream in = null;
             try {
-                return FileUtil.readFileToString(chunkFile);
+                in = source.open(chunkPath);
+                return FileUtil.readStreamToString(in);
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                if(in != null) FileUtil.closeQuietly(in);
             }
         }
         return "";
     }
 
+    /**
+     * Sets the cache used by {@link #readChunk(String, String)} in all resource containers
+     * @param cache the cache or null to disable caching. Caching is disabled by default
+     */
+    public static void setChunkCache(ChunkCache cache) {
+        chunkCache = cache;
+    }
+
+    /**
+     * Returns the cache used by {@link #readChunk(String, String)}
+     * @return the cache or null if caching is disabled
+     */
+    public static ChunkCache getChunkCache() {
+        return chunkCache;
+    }
+
     /**
      * Returns the file extension to use for content files (chunks)
      * @return
@@ -349,4 +1039,42 @@ public class ResourceContainer {
             return defaultExt;
         }
     }
+
+    /**
+     * Statistics about the extraction of a tar archive by {@link #open(File, File, EntryFilter, int, ExtractStats)}
+     */
+    public static class ExtractStats {
+        /**
+         * The number of files extracted
+         */
+        public int entries = 0;
+        /**
+         * The number of bytes written to the extracted files
+         */
+        public long bytes = 0;
+        /**
+         * The time spent extracting in milliseconds
+         */
+        public long wallTime = 0;
+    }
+
+    /**
+     * Statistics about the archive written by {@link #close(File, ArchiveCodec, int, CloseStats)}
+     */
+    public static class CloseStats {
+        /**
+         * The number of bytes in the tar stream
+         */
+        public long bytes = 0;
+        /**
+         * The number of bytes written to the archive.
+         * This is the same as {@link #bytes} when the archive is not compressed
+         */
+        public long archiveBytes = 0;
+        /**
+         * True if the existing archive was kept because the container had not changed.
+         * Nothing is written in this case
+         */
+        public boolean upToDate = false;
+    }
 }
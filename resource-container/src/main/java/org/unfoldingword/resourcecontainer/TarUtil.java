@@ -1,20 +1,63 @@
 package org.unfoldingword.resourcecontainer;
 
+import org.unfoldingword.tools.jtar.TarConstants;
 import org.unfoldingword.tools.jtar.TarEntry;
+import org.unfoldingword.tools.jtar.TarFile;
+import org.unfoldingword.tools.jtar.TarHeader;
 import org.unfoldingword.tools.jtar.TarInputStream;
 import org.unfoldingword.tools.jtar.TarOutputStream;
+import org.unfoldingword.tools.jtar.TarUtils;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by joel on 9/7/16.
  */
 class TarUtil {
+    // the name used for global headers by git and other tools
+    private static final String PAX_GLOBAL_HEADER = "pax_global_header";
+    private static final int DIRECT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final int COPY_BUFFER_SIZE = 8192;
+    private static final int MAX_QUEUED_FILES = 64;
+    private static final int MAX_QUEUED_FILE_SIZE = 256 * 1024;
+    private static final int MAX_READ_AHEAD_FILES = 16;
+    // TRICKY: direct buffers are expensive to allocate so they are kept between extractions
+    private static final BlockingQueue<ByteBuffer> DIRECT_BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+    private static final Comparator<String> PACKAGE_FIRST = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            if(lhs.equals(rhs)) return 0;
+            if(lhs.equals("package.json")) return -1;
+            if(rhs.equals("package.json")) return 1;
+            return lhs.compareTo(rhs);
+        }
+    };
 
     /**
      * Extracts a tar to a directory
@@ -23,34 +66,382 @@ class TarUtil {
      * @throws IOException
      */
     public static void untar(TarInputStream in, String destFolder) throws IOException {
-        BufferedOutputStream dest = null;
+        untar(in, destFolder, null);
+    }
 
-        TarEntry entry;
-        while ((entry = in.getNextEntry()) != null) {
-            System.out.println("Extracting: " + entry.getName());
-            int count;
-            byte data[] = new byte[2048];
+    /**
+     * Extracts the selected entries of a tar to a directory.
+     * Entries that are not selected are skipped without being written
+     * @param in
+     * @param destFolder
+     * @param filter selects the entries to extract. If null all entries are extracted
+     * @throws IOException
+     */
+    public static void untar(TarInputStream in, String destFolder, EntryFilter filter) throws IOException {
+        untar(in, destFolder, filter, 1, null);
+    }
 
-            if (entry.isDirectory()) {
-                new File(destFolder + "/" + entry.getName()).mkdirs();
-                continue;
+    /**
+     * Extracts the selected entries of a tar to a directory.
+     *
+     * When more than one thread is used the extraction is pipelined. The calling thread decodes the tar
+     * and queues the contents of each file while the other threads write them to the disk.
+     * Files that are too large to queue are written by the calling thread.
+     * @param in
+     * @param destFolder
+     * @param filter selects the entries to extract. If null all entries are extracted
+     * @param threads the number of threads used to decode and write the files
+     * @param stats receives statistics about the extraction. This may be null
+     * @throws IOException
+     */
+    public static void untar(TarInputStream in, String destFolder, EntryFilter filter, int threads, ResourceContainer.ExtractStats stats) throws IOException {
+        long start = System.currentTimeMillis();
+        Set<String> directories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        byte[] header = new byte[TarConstants.HEADER_BLOCK];
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int entries = 0;
+        long bytes = 0;
+
+        ExecutorService executor = null;
+        List<Future<Void>> writers = new ArrayList<>();
+        BlockingQueue<QueuedFile> queue = null;
+        if(threads > 1) {
+            executor = Executors.newFixedThreadPool(threads - 1);
+            queue = new ArrayBlockingQueue<>(MAX_QUEUED_FILES);
+            for(int i = 0; i < threads - 1; i ++) {
+                writers.add(executor.submit(new EntryWriteTask(queue)));
+            }
+        }
+
+        try {
+            TarEntry entry;
+            while ((entry = in.getNextEntry(header)) != null) {
+                String name = EntryTree.normalize(entry.getName());
+                if(filter != null && !filter.accept(name)) continue;
+                System.out.println("Extracting: " + entry.getName());
+
+                File dest = new File(destFolder, name);
+                if (entry.isDirectory()) {
+                    makeDirectories(dest, directories);
+                    continue;
+                }
+                makeDirectories(dest.getParentFile(), directories);
+
+                long size = entry.getSize();
+                long lastModified = entry.getModTime().getTime();
+                if(queue != null && size <= MAX_QUEUED_FILE_SIZE) {
+                    byte[] data = new byte[(int)size];
+                    int read = 0;
+                    int n;
+                    while(read < data.length && (n = in.read(data, read, data.length - read)) != -1) {
+                        read += n;
+                    }
+                    if(read < data.length) throw new IOException("Unexpected end of tar at " + entry.getName());
+                    enqueue(queue, new QueuedFile(dest, data, lastModified), writers);
+                } else {
+                    writeFile(in, dest, size, buffer);
+                    dest.setLastModified(lastModified);
+                }
+                entries ++;
+                bytes += size;
+            }
+
+            // wait for the writers to finish
+            for(int i = 0; i < writers.size(); i ++) {
+                enqueue(queue, QueuedFile.END, writers);
+            }
+            for(Future<Void> writer:writers) {
+                waitFor(writer);
+            }
+        } finally {
+            if(executor != null) executor.shutdownNow();
+        }
+
+        if(stats != null) {
+            stats.entries = entries;
+            stats.bytes = bytes;
+            stats.wallTime = System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * Creates a directory unless it has already been created during this extraction
+     * @param dir
+     * @param directories the directories that have been created
+     */
+    private static void makeDirectories(File dir, Set<String> directories) {
+        if(directories.add(dir.getPath())) dir.mkdirs();
+    }
+
+    /**
+     * Copies the rest of a stream to a file.
+     * If the copy fails the partially written file is deleted so it is not mistaken for an extracted file
+     * @param in
+     * @param dest
+     * @param size the number of bytes the stream should contain
+     * @param buffer
+     * @throws IOException if the stream ends early
+     */
+    private static void writeFile(InputStream in, File dest, long size, byte[] buffer) throws IOException {
+        FileOutputStream out = new FileOutputStream(dest);
+        try {
+            try {
+                long written = 0;
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                    written += count;
+                }
+                if(written < size) throw new EOFException("Unexpected end of tar at " + dest.getName());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            FileUtil.deleteQuietly(dest);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a file to the queue. If a writer fails while waiting for space the failure is thrown
+     * @param queue
+     * @param file
+     * @param writers
+     * @throws IOException
+     */
+    private static void enqueue(BlockingQueue<QueuedFile> queue, QueuedFile file, List<Future<Void>> writers) throws IOException {
+        try {
+            while(!queue.offer(file, 100, TimeUnit.MILLISECONDS)) {
+                for(Future<Void> writer:writers) {
+                    if(writer.isDone()) waitFor(writer);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while extracting");
+        }
+    }
+
+    /**
+     * Waits for a task and re-throws its failure
+     * @param task
+     * @throws IOException
+     */
+    private static void waitFor(Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while extracting");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            throw new IOException("Failed to extract", e.getCause());
+        }
+    }
+
+    /**
+     * The contents of a file waiting to be written
+     */
+    private static class QueuedFile {
+        static final QueuedFile END = new QueuedFile(null, null, 0);
+
+        final File dest;
+        final byte[] data;
+        final long lastModified;
+
+        QueuedFile(File dest, byte[] data, long lastModified) {
+            this.dest = dest;
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Writes queued files until the end of the queue is reached
+     */
+    private static class EntryWriteTask implements Callable<Void> {
+        private final BlockingQueue<QueuedFile> queue;
+
+        EntryWriteTask(BlockingQueue<QueuedFile> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            QueuedFile file;
+            while((file = queue.take()) != QueuedFile.END) {
+                FileOutputStream out = new FileOutputStream(file.dest);
+                try {
+                    try {
+                        out.write(file.data);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    FileUtil.deleteQuietly(file.dest);
+                    throw e;
+                }
+                file.dest.setLastModified(file.lastModified);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Extracts the selected entries of an uncompressed tar on the disk.
+     * The headers are indexed first and then the files are copied with positional reads
+     * so the entries can be extracted concurrently.
+     * @param tar an uncompressed tar
+     * @param destFolder
+     * @param filter selects the entries to extract. If null all entries are extracted
+     * @param threads the number of threads used to extract the files
+     * @param stats receives statistics about the extraction. This may be null
+     * @throws IOException
+     */
+    public static void untar(File tar, String destFolder, EntryFilter filter, int threads, ResourceContainer.ExtractStats stats) throws IOException {
+        long start = System.currentTimeMillis();
+        TarFile tarFile = new TarFile(tar);
+        ExecutorService executor = null;
+        try {
+            // create the directories up front so the workers only write files
+            List<TarFile.Entry> files = new ArrayList<>();
+            List<File> destinations = new ArrayList<>();
+            Set<String> directories = new HashSet<>();
+            for(TarFile.Entry entry:tarFile.getEntries()) {
+                String name = EntryTree.normalize(entry.getName());
+                if(filter != null && !filter.accept(name)) continue;
+                System.out.println("Extracting: " + entry.getName());
+                File dest = new File(destFolder, name);
+                if(entry.isDirectory()) {
+                    makeDirectories(dest, directories);
+                } else {
+                    makeDirectories(dest.getParentFile(), directories);
+                    files.add(entry);
+                    destinations.add(dest);
+                }
+            }
+
+            ExtractWorker worker = new ExtractWorker(tarFile, files, destinations);
+            threads = Math.min(threads, files.size());
+            if(threads <= 1) {
+                worker.call();
             } else {
-                int di = entry.getName().lastIndexOf('/');
-                if (di != -1) {
-                    new File(destFolder + "/" + entry.getName().substring(0, di)).mkdirs();
+                executor = Executors.newFixedThreadPool(threads);
+                List<Future<Void>> futures = new ArrayList<>();
+                for(int i = 0; i < threads; i ++) {
+                    futures.add(executor.submit(worker));
+                }
+                for(Future<Void> future:futures) {
+                    waitFor(future);
                 }
             }
 
-            FileOutputStream fos = new FileOutputStream(destFolder + "/" + entry.getName());
-            dest = new BufferedOutputStream(fos);
+            if(stats != null) {
+                stats.entries = files.size();
+                stats.bytes = 0;
+                for(TarFile.Entry entry:files) stats.bytes += entry.getSize();
+                stats.wallTime = System.currentTimeMillis() - start;
+            }
+        } finally {
+            if(executor != null) executor.shutdownNow();
+            tarFile.close();
+        }
+    }
+
+    /**
+     * Extracts files until there are none left. Several workers can share the same list
+     */
+    private static class ExtractWorker implements Callable<Void> {
+        private final TarFile tarFile;
+        private final List<TarFile.Entry> files;
+        private final List<File> destinations;
+        private final AtomicInteger next = new AtomicInteger();
+
+        ExtractWorker(TarFile tarFile, List<TarFile.Entry> files, List<File> destinations) {
+            this.tarFile = tarFile;
+            this.files = files;
+            this.destinations = destinations;
+        }
 
-            while ((count = in.read(data)) != -1) {
-                dest.write(data, 0, count);
+        @Override
+        public Void call() throws IOException {
+            ByteBuffer buffer = acquireBuffer();
+            try {
+                int i;
+                while((i = next.getAndIncrement()) < files.size()) {
+                    extractEntry(tarFile, files.get(i), destinations.get(i), buffer);
+                }
+            } finally {
+                releaseBuffer(buffer);
             }
+            return null;
+        }
+    }
 
-            dest.flush();
-            dest.close();
+    /**
+     * Copies the payload of an entry to a file with positional reads
+     * @param tarFile
+     * @param entry
+     * @param dest
+     * @param buffer the buffer used to copy the payload
+     * @throws IOException
+     */
+    private static void extractEntry(TarFile tarFile, TarFile.Entry entry, File dest, ByteBuffer buffer) throws IOException {
+        FileChannel source = tarFile.getChannel();
+        FileOutputStream out = new FileOutputStream(dest);
+        try {
+            try {
+                FileChannel target = out.getChannel();
+                long position = entry.getDataOffset();
+                long end = position + entry.getSize();
+                while(position < end) {
+                    buffer.clear();
+                    if(end - position < buffer.capacity()) buffer.limit((int)(end - position));
+                    int n = source.read(buffer, position);
+                    if(n == -1) throw new EOFException("Unexpected end of " + dest.getName());
+                    position += n;
+                    buffer.flip();
+                    while(buffer.hasRemaining()) target.write(buffer);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            FileUtil.deleteQuietly(dest);
+            throw e;
         }
+        dest.setLastModified(entry.getLastModified());
+    }
+
+    /**
+     * Takes a direct buffer from the pool or allocates a new one
+     * @return
+     */
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = DIRECT_BUFFERS.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a direct buffer to the pool
+     * @param buffer
+     */
+    private static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        DIRECT_BUFFERS.offer(buffer);
+    }
+
+    /**
+     * Adds a pax global header to a tar.
+     * Tar tools read the records as information about the archive instead of extracting them as a file
+     * @param records the encoded records. See {@link TarUtils#formatPaxRecord(String, String)}
+     * @param out
+     * @throws IOException
+     */
+    public static void putGlobalHeader(byte[] records, TarOutputStream out) throws IOException {
+        TarHeader header = TarHeader.createHeader(PAX_GLOBAL_HEADER, records.length, System.currentTimeMillis() / 1000, false, 0644);
+        header.linkFlag = TarHeader.LF_PAX_GLOBAL;
+        out.putNextEntry(new TarEntry(header));
+        out.write(records);
+        out.flush();
     }
 
     /**
@@ -61,9 +452,55 @@ class TarUtil {
      * @throws IOException
      */
     public static void tar(String parent, String path, TarOutputStream out) throws IOException {
-        BufferedInputStream origin = null;
+        tar(parent, path, out, null);
+    }
+
+    /**
+     * Places the selected files of a directory in a tar
+     * @param parent the directory where the path will be saved. leave null if you want to exclude the parent directory
+     * @param path the path that will be added
+     * @param out
+     * @param filter selects the files and empty directories to add. If null everything is added
+     * @throws IOException
+     */
+    public static void tar(String parent, String path, TarOutputStream out, EntryFilter filter) throws IOException {
+        tar(list(parent, path, filter), out, 1);
+    }
+
+    /**
+     * Places the selected files of a directory in a tar.
+     * See {@link #tar(List, TarOutputStream, int)}
+     * @param parent the directory where the path will be saved. leave null if you want to exclude the parent directory
+     * @param path the path that will be added
+     * @param out
+     * @param filter selects the files and empty directories to add. If null everything is added
+     * @param threads the number of threads used to read the files
+     * @throws IOException
+     */
+    public static void tar(String parent, String path, TarOutputStream out, EntryFilter filter, int threads) throws IOException {
+        tar(list(parent, path, filter), out, threads);
+    }
+
+    /**
+     * Lists the files and empty directories of a directory in the order they are added to a tar.
+     * The directory is walked once and the size, modification time and permissions of each file
+     * are captured in the entry headers so they are not read again when the tar is written.
+     * @param parent the directory where the path will be saved. leave null if you want to exclude the parent directory
+     * @param path the path that will be listed
+     * @param filter selects the files and empty directories to list. If null everything is listed
+     * @return the entries. Each entry is backed by its file
+     * @throws IOException
+     */
+    public static List<TarEntry> list(String parent, String path, EntryFilter filter) throws IOException {
+        List<TarEntry> entries = new ArrayList<>();
+        list(parent, path, filter, entries);
+        return entries;
+    }
+
+    private static void list(String parent, String path, EntryFilter filter, List<TarEntry> entries) throws IOException {
         File f = new File(path);
         String files[] = f.list();
+        boolean isDirectory = files != null;
 
         // is file
         if (files == null) {
@@ -73,44 +510,156 @@ class TarUtil {
 
         if(parent == null) {
             parent = "";
+            // TRICKY: package.json goes first so it can be read without decompressing the entire archive
+            Arrays.sort(files, PACKAGE_FIRST);
         } else {
             parent += f.getName() + "/";
+            Arrays.sort(files);
         }
 
         for (int i = 0; i < files.length; i++) {
-            System.out.println("Adding: " + parent + files[i]);
             File fe = f;
-            byte data[] = new byte[2048];
 
-            if (f.isDirectory()) {
+            if (isDirectory) {
                 fe = new File(f, files[i]);
             }
 
-            if (fe.isDirectory()) {
-                String[] fl = fe.list();
-                if (fl != null && fl.length != 0) {
-                    tar(parent, fe.getPath(), out);
+            // TRICKY: listing a regular file returns null so this also tells us if it is a directory
+            String[] fl = isDirectory ? fe.list() : null;
+            if (fl != null) {
+                if (fl.length != 0) {
+                    list(parent, fe.getPath(), filter, entries);
                 } else {
-                    TarEntry entry = new TarEntry(fe, parent + files[i] + "/");
-                    out.putNextEntry(entry);
+                    if(filter != null && !filter.accept(parent + files[i])) continue;
+                    entries.add(new TarEntry(fe, parent + files[i] + "/"));
                 }
                 continue;
             }
 
-            FileInputStream fi = new FileInputStream(fe);
-            origin = new BufferedInputStream(fi);
-            TarEntry entry = new TarEntry(fe, parent + files[i]);
-            out.putNextEntry(entry);
+            if(filter != null && !filter.accept(parent + files[i])) continue;
+            entries.add(new TarEntry(fe, parent + files[i]));
+        }
+    }
+
+    /**
+     * Places entries created by {@link #list(String, String, EntryFilter)} in a tar.
+     *
+     * When more than one thread is used the files are read ahead of the tar on a thread pool
+     * so opening and reading files overlaps with writing the archive.
+     * The entries are still written in order. Files that are too large to read ahead are copied by the calling thread.
+     * @param entries
+     * @param out
+     * @param threads the number of threads used to read the files
+     * @throws IOException
+     */
+    public static void tar(List<TarEntry> entries, TarOutputStream out, int threads) throws IOException {
+        if(threads <= 1) {
+            for(TarEntry entry:entries) {
+                System.out.println("Adding: " + entry.getName());
+                out.putFile(entry.getFile(), entry);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(MAX_READ_AHEAD_FILES);
+        List<Future<ReadAheadFile>> pending = new ArrayList<>(Collections.<Future<ReadAheadFile>>nCopies(entries.size(), null));
+        try {
+            int scheduled = 0;
+            for(int i = 0; i < entries.size(); i ++) {
+                // keep a bounded window of files reading ahead of the writer
+                for(; scheduled < entries.size() && scheduled < i + MAX_READ_AHEAD_FILES; scheduled ++) {
+                    TarEntry entry = entries.get(scheduled);
+                    if(!entry.isDirectory() && entry.getSize() <= MAX_QUEUED_FILE_SIZE) {
+                        byte[] buffer = buffers.poll();
+                        if(buffer == null) buffer = new byte[MAX_QUEUED_FILE_SIZE];
+                        pending.set(scheduled, executor.submit(new ReadAheadTask(entry, buffer)));
+                    }
+                }
 
-            int count;
+                TarEntry entry = entries.get(i);
+                System.out.println("Adding: " + entry.getName());
+                Future<ReadAheadFile> future = pending.set(i, null);
+                if(future == null) {
+                    out.putFile(entry.getFile(), entry);
+                    continue;
+                }
 
-            while ((count = origin.read(data)) != -1) {
-                out.write(data, 0, count);
+                ReadAheadFile file = waitForFile(future);
+                if(file.length < 0) {
+                    // TRICKY: the file grew after it was listed
+                    out.putFile(entry.getFile(), entry);
+                } else {
+                    out.putNextEntry(entry);
+                    out.write(file.buffer, 0, file.length);
+                    out.flush();
+                }
+                buffers.offer(file.buffer);
             }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            out.flush();
+    /**
+     * Waits for a file to be read and re-throws any failure
+     * @param future
+     * @return
+     * @throws IOException
+     */
+    private static ReadAheadFile waitForFile(Future<ReadAheadFile> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while archiving");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            throw new IOException("Failed to read file", e.getCause());
+        }
+    }
+
+    /**
+     * The contents of a file that has been read ahead of the tar
+     */
+    private static class ReadAheadFile {
+        final byte[] buffer;
+        final int length;
 
-            origin.close();
+        ReadAheadFile(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads a file into a buffer.
+     * If the file does not fit in the buffer the length is -1 and the file must be streamed
+     */
+    private static class ReadAheadTask implements Callable<ReadAheadFile> {
+        private final TarEntry entry;
+        private final byte[] buffer;
+
+        ReadAheadTask(TarEntry entry, byte[] buffer) {
+            this.entry = entry;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public ReadAheadFile call() throws IOException {
+            InputStream in = new FileInputStream(entry.getFile());
+            try {
+                int length = 0;
+                int n;
+                while(length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+                    length += n;
+                }
+                if(length == buffer.length && in.read() != -1) return new ReadAheadFile(buffer, -1);
+                // TRICKY: the writer only uses the entry after this task is done
+                entry.setSize(length);
+                return new ReadAheadFile(buffer, length);
+            } finally {
+                in.close();
+            }
         }
     }
 }
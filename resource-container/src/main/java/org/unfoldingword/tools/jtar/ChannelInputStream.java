@@ -0,0 +1,70 @@
+package org.unfoldingword.tools.jtar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a range of a file channel with positional reads.
+ *
+ * The channel position is never changed so several streams can read the same
+ * channel at once, even on different threads. Closing the stream does not
+ * close the channel.
+ *
+ */
+public class ChannelInputStream extends InputStream {
+	private final FileChannel channel;
+	private long position;
+	private final long end;
+
+	/**
+	 * @param channel
+	 * @param offset
+	 *            the position of the first byte to read
+	 * @param length
+	 *            the number of bytes that can be read
+	 */
+	public ChannelInputStream(FileChannel channel, long offset, long length) {
+		this.channel = channel;
+		this.position = offset;
+		this.end = offset + length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position >= end) {
+			return -1;
+		}
+		len = (int) Math.min(len, end - position);
+		int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+		if (n == -1) {
+			throw new EOFException("Unexpected end of file");
+		}
+		position += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		long skipped = Math.max(0, Math.min(n, end - position));
+		position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, end - position);
+	}
+}
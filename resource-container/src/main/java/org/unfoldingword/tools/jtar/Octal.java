@@ -37,25 +37,20 @@ public class Octal {
      * @return The long value of the octal string.
      */
     public static long parseOctal(byte[] header, int offset, int length) {
-        long result = 0;
-        boolean stillPadding = true;
-
+        int i = offset;
         int end = offset + length;
-        for (int i = offset; i < end; ++i) {
-            if (header[i] == 0)
-                break;
-
-            if (header[i] == (byte) ' ' || header[i] == '0') {
-                if (stillPadding)
-                    continue;
 
-                if (header[i] == (byte) ' ')
-                    break;
-            }
+        // skip the padding
+        while (i < end && (header[i] == (byte) ' ' || header[i] == (byte) '0'))
+            ++i;
 
-            stillPadding = false;
+        long result = 0;
+        for (; i < end; ++i) {
+            int digit = header[i] - '0';
+            if ((digit & ~7) != 0)
+                break;
 
-            result = ( result << 3 ) + ( header[i] - '0' );
+            result = ( result << 3 ) | digit;
         }
 
         return result;
@@ -75,27 +70,7 @@ public class Octal {
      * @return The integer value of the octal bytes.
      */
     public static int getOctalBytes(long value, byte[] buf, int offset, int length) {
-        int idx = length - 1;
-
-        buf[offset + idx] = 0;
-        --idx;
-        buf[offset + idx] = (byte) ' ';
-        --idx;
-
-        if (value == 0) {
-            buf[offset + idx] = (byte) '0';
-            --idx;
-        } else {
-            for (long val = value; idx >= 0 && val > 0; --idx) {
-                buf[offset + idx] = (byte) ( (byte) '0' + (byte) ( val & 7 ) );
-                val = val >> 3;
-            }
-        }
-
-        for (; idx >= 0; --idx) {
-            buf[offset + idx] = (byte) ' ';
-        }
-
+        putOctal(value, buf, offset, length);
         return offset + length;
     }
 
@@ -112,9 +87,9 @@ public class Octal {
      * @return The integer value of the entry's checksum.
      */
     public static int getCheckSumOctalBytes(long value, byte[] buf, int offset, int length) {
-        getOctalBytes( value, buf, offset, length );
-        buf[offset + length - 1] = (byte) ' ';
+        formatDigits( value, buf, offset, length - 2 );
         buf[offset + length - 2] = 0;
+        buf[offset + length - 1] = (byte) ' ';
         return offset + length;
     }
 
@@ -132,10 +107,59 @@ public class Octal {
      * @return The long value of the octal bytes.
      */
     public static int getLongOctalBytes(long value, byte[] buf, int offset, int length) {
-        byte[] temp = new byte[length + 1];
-        getOctalBytes( value, temp, 0, length + 1 );
-        System.arraycopy( temp, 0, buf, offset, length );
+        putLongOctal(value, buf, offset, length);
         return offset + length;
     }
 
+    /**
+     * Writes an octal field in the same format as
+     * {@link #getOctalBytes(long, byte[], int, int)}.
+     * 
+     * @return The sum of the bytes written so it can be added to the header checksum.
+     */
+    public static int putOctal(long value, byte[] buf, int offset, int length) {
+        int sum = formatDigits( value, buf, offset, length - 2 );
+        buf[offset + length - 2] = (byte) ' ';
+        buf[offset + length - 1] = 0;
+        return sum + ' ';
+    }
+
+    /**
+     * Writes an octal field in the same format as
+     * {@link #getLongOctalBytes(long, byte[], int, int)}.
+     * 
+     * @return The sum of the bytes written so it can be added to the header checksum.
+     */
+    public static int putLongOctal(long value, byte[] buf, int offset, int length) {
+        int sum = formatDigits( value, buf, offset, length - 1 );
+        buf[offset + length - 1] = (byte) ' ';
+        return sum + ' ';
+    }
+
+    /**
+     * Writes the octal digits right aligned and padded with spaces.
+     * Digits that do not fit are dropped.
+     * 
+     * @return The sum of the bytes written.
+     */
+    private static int formatDigits(long value, byte[] buf, int offset, int digits) {
+        int sum = 0;
+        int idx = offset + digits - 1;
+
+        long val = value;
+        do {
+            byte b = (byte) ( '0' + ( val & 7 ) );
+            buf[idx--] = b;
+            sum += b;
+            val >>>= 3;
+        } while (val != 0 && idx >= offset);
+
+        for (; idx >= offset; --idx) {
+            buf[idx] = (byte) ' ';
+            sum += ' ';
+        }
+
+        return sum;
+    }
+
 }
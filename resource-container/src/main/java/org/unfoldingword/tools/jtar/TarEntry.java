@@ -25,8 +25,24 @@ import java.util.Date;
  * 
  */
 public class TarEntry {
+	static final int UID_OFFSET = 108;
+	static final int GID_OFFSET = 116;
+	static final int SIZE_OFFSET = 124;
+	static final int MODTIME_OFFSET = 136;
+	static final int CHKSUM_OFFSET = 148;
+	static final int LINKFLAG_OFFSET = 156;
+	static final int USER_NAME_OFFSET = 265;
+	static final int GROUP_NAME_OFFSET = 297;
+	static final int PREFIX_OFFSET = 345;
+
 	protected File file;
 	protected TarHeader header;
+	/**
+	 * The raw header of an entry that has not been parsed yet
+	 */
+	private byte[] rawHeader;
+	private long rawSize;
+	private String rawName;
 
 	private TarEntry() {
 		this.file = null;
@@ -44,6 +60,37 @@ public class TarEntry {
 		this.parseTarHeader(headerBuf);
 	}
 
+	/**
+	 * Creates an entry that is backed by the header buffer. Each field is
+	 * decoded from the buffer when it is accessed. The full header is only
+	 * parsed by {@link #getHeader()} or when the entry is modified.
+	 * 
+	 * @param headerBuf
+	 * @return
+	 */
+	static TarEntry wrap(byte[] headerBuf) {
+		TarEntry entry = new TarEntry((TarHeader) null);
+		entry.rawHeader = headerBuf;
+		entry.rawSize = Octal.parseOctal(headerBuf, SIZE_OFFSET, TarHeader.SIZELEN);
+		return entry;
+	}
+
+	/**
+	 * Returns the parsed header, parsing it first if needed
+	 * 
+	 * @return
+	 */
+	private TarHeader header() {
+		if (rawHeader != null) {
+			header = new TarHeader();
+			byte[] buf = rawHeader;
+			rawHeader = null;
+			rawName = null;
+			parseTarHeader(buf);
+		}
+		return header;
+	}
+
 	/**
 	 * Constructor to create an entry from an existing TarHeader object.
 	 * 
@@ -59,60 +106,89 @@ public class TarEntry {
 	}
 
 	public boolean equals(TarEntry it) {
-		return header.name.toString().equals(it.header.name.toString());
+		return getShortName().equals(it.getShortName());
 	}
 
 	public boolean isDescendent(TarEntry desc) {
-		return desc.header.name.toString().startsWith(header.name.toString());
+		return desc.getShortName().startsWith(getShortName());
+	}
+
+	/**
+	 * Returns the name field without the ustar prefix
+	 * 
+	 * @return
+	 */
+	private String getShortName() {
+		if (rawHeader != null)
+			return TarHeader.parseString(rawHeader, 0, TarHeader.NAMELEN);
+		return header.name.toString();
 	}
 
 	public TarHeader getHeader() {
-		return header;
+		return header();
 	}
 
 	public String getName() {
-		String name = header.name.toString();
-		if (header.namePrefix != null && !header.namePrefix.toString().equals("")) {
-			name = header.namePrefix.toString() + "/" + name;
+		if (rawHeader != null) {
+			if (rawName == null) {
+				rawName = TarHeader.parseString(rawHeader, 0, TarHeader.NAMELEN);
+				if (rawHeader[PREFIX_OFFSET] != 0) {
+					rawName = TarHeader.parseString(rawHeader, PREFIX_OFFSET, TarHeader.USTAR_FILENAME_PREFIX) + "/" + rawName;
+				}
+			}
+			return rawName;
+		}
+
+		String name = header().name.toString();
+		if (header().namePrefix != null && !header().namePrefix.toString().equals("")) {
+			name = header().namePrefix.toString() + "/" + name;
 		}
 
 		return name;
 	}
 
 	public void setName(String name) {
-		header.name = new StringBuffer(name);
+		header().name = new StringBuffer(name);
 	}
 
 	public int getUserId() {
+		if (rawHeader != null)
+			return (int) Octal.parseOctal(rawHeader, UID_OFFSET, TarHeader.UIDLEN);
 		return header.userId;
 	}
 
 	public void setUserId(int userId) {
-		header.userId = userId;
+		header().userId = userId;
 	}
 
 	public int getGroupId() {
+		if (rawHeader != null)
+			return (int) Octal.parseOctal(rawHeader, GID_OFFSET, TarHeader.GIDLEN);
 		return header.groupId;
 	}
 
 	public void setGroupId(int groupId) {
-		header.groupId = groupId;
+		header().groupId = groupId;
 	}
 
 	public String getUserName() {
+		if (rawHeader != null)
+			return TarHeader.parseString(rawHeader, USER_NAME_OFFSET, TarHeader.USTAR_USER_NAMELEN);
 		return header.userName.toString();
 	}
 
 	public void setUserName(String userName) {
-		header.userName = new StringBuffer(userName);
+		header().userName = new StringBuffer(userName);
 	}
 
 	public String getGroupName() {
+		if (rawHeader != null)
+			return TarHeader.parseString(rawHeader, GROUP_NAME_OFFSET, TarHeader.USTAR_GROUP_NAMELEN);
 		return header.groupName.toString();
 	}
 
 	public void setGroupName(String groupName) {
-		header.groupName = new StringBuffer(groupName);
+		header().groupName = new StringBuffer(groupName);
 	}
 
 	public void setIds(int userId, int groupId) {
@@ -121,14 +197,16 @@ public class TarEntry {
 	}
 
 	public void setModTime(long time) {
-		header.modTime = time / 1000;
+		header().modTime = time / 1000;
 	}
 
 	public void setModTime(Date time) {
-		header.modTime = time.getTime() / 1000;
+		header().modTime = time.getTime() / 1000;
 	}
 
 	public Date getModTime() {
+		if (rawHeader != null)
+			return new Date(Octal.parseOctal(rawHeader, MODTIME_OFFSET, TarHeader.MODTIMELEN) * 1000);
 		return new Date(header.modTime * 1000);
 	}
 
@@ -137,21 +215,44 @@ public class TarEntry {
 	}
 
 	public long getSize() {
+		if (rawHeader != null) {
+			return rawSize;
+		}
 		return header.size;
 	}
 
 	public void setSize(long size) {
-		header.size = size;
+		header().size = size;
 	}
 
 	/**
-	 * Checks if the org.kamrazafar.jtar entry is a directory
+	 * Checks if the entry is a pax extended header rather than a file. See
+	 * {@link TarUtils#parsePaxRecords(byte[])}
+	 * 
+	 * @return
+	 */
+	public boolean isPaxHeader() {
+		byte linkFlag = rawHeader != null ? rawHeader[LINKFLAG_OFFSET] : header.linkFlag;
+		return linkFlag == TarHeader.LF_PAX_EXTENDED || linkFlag == TarHeader.LF_PAX_GLOBAL;
+	}
+
+	/**
+	 * Checks if the org.kamrazafar.jtar entry is a directory. Entries created
+	 * from a file use the type captured in the header so the file is not
+	 * checked again.
 	 * 
 	 * @return
 	 */
 	public boolean isDirectory() {
-		if (this.file != null)
-			return this.file.isDirectory();
+		if (rawHeader != null) {
+			if (rawHeader[LINKFLAG_OFFSET] == TarHeader.LF_DIR)
+				return true;
+
+			int end = 0;
+			while (end < TarHeader.NAMELEN && rawHeader[end] != 0)
+				end++;
+			return end > 0 && rawHeader[end - 1] == '/';
+		}
 
 		if (header != null) {
 			if (header.linkFlag == TarHeader.LF_DIR)
@@ -196,37 +297,52 @@ public class TarEntry {
 	 * @param outbuf
 	 */
 	public void writeEntryHeader(byte[] outbuf) {
+		TarHeader header = header();
 		int offset = 0;
 
-		offset = TarHeader.getNameBytes(header.name, outbuf, offset, TarHeader.NAMELEN);
-		offset = Octal.getOctalBytes(header.mode, outbuf, offset, TarHeader.MODELEN);
-		offset = Octal.getOctalBytes(header.userId, outbuf, offset, TarHeader.UIDLEN);
-		offset = Octal.getOctalBytes(header.groupId, outbuf, offset, TarHeader.GIDLEN);
+		// the checksum is summed as each field is written
+		long checkSum = 0;
 
-		long size = header.size;
+		checkSum += TarHeader.putName(header.name, outbuf, offset, TarHeader.NAMELEN);
+		offset += TarHeader.NAMELEN;
+		checkSum += Octal.putOctal(header.mode, outbuf, offset, TarHeader.MODELEN);
+		offset += TarHeader.MODELEN;
+		checkSum += Octal.putOctal(header.userId, outbuf, offset, TarHeader.UIDLEN);
+		offset += TarHeader.UIDLEN;
+		checkSum += Octal.putOctal(header.groupId, outbuf, offset, TarHeader.GIDLEN);
+		offset += TarHeader.GIDLEN;
 
-		offset = Octal.getLongOctalBytes(size, outbuf, offset, TarHeader.SIZELEN);
-		offset = Octal.getLongOctalBytes(header.modTime, outbuf, offset, TarHeader.MODTIMELEN);
+		checkSum += Octal.putLongOctal(header.size, outbuf, offset, TarHeader.SIZELEN);
+		offset += TarHeader.SIZELEN;
+		checkSum += Octal.putLongOctal(header.modTime, outbuf, offset, TarHeader.MODTIMELEN);
+		offset += TarHeader.MODTIMELEN;
 
+		// the checksum field is summed as spaces
 		int csOffset = offset;
-		for (int c = 0; c < TarHeader.CHKSUMLEN; ++c)
-			outbuf[offset++] = (byte) ' ';
+		checkSum += TarHeader.CHKSUMLEN * ' ';
+		offset += TarHeader.CHKSUMLEN;
 
 		outbuf[offset++] = header.linkFlag;
+		checkSum += header.linkFlag & 0xFF;
 
-		offset = TarHeader.getNameBytes(header.linkName, outbuf, offset, TarHeader.NAMELEN);
-		offset = TarHeader.getNameBytes(header.magic, outbuf, offset, TarHeader.USTAR_MAGICLEN);
-		offset = TarHeader.getNameBytes(header.userName, outbuf, offset, TarHeader.USTAR_USER_NAMELEN);
-		offset = TarHeader.getNameBytes(header.groupName, outbuf, offset, TarHeader.USTAR_GROUP_NAMELEN);
-		offset = Octal.getOctalBytes(header.devMajor, outbuf, offset, TarHeader.USTAR_DEVLEN);
-		offset = Octal.getOctalBytes(header.devMinor, outbuf, offset, TarHeader.USTAR_DEVLEN);
-		offset = TarHeader.getNameBytes(header.namePrefix, outbuf, offset, TarHeader.USTAR_FILENAME_PREFIX);
+		checkSum += TarHeader.putName(header.linkName, outbuf, offset, TarHeader.NAMELEN);
+		offset += TarHeader.NAMELEN;
+		checkSum += TarHeader.putName(header.magic, outbuf, offset, TarHeader.USTAR_MAGICLEN);
+		offset += TarHeader.USTAR_MAGICLEN;
+		checkSum += TarHeader.putName(header.userName, outbuf, offset, TarHeader.USTAR_USER_NAMELEN);
+		offset += TarHeader.USTAR_USER_NAMELEN;
+		checkSum += TarHeader.putName(header.groupName, outbuf, offset, TarHeader.USTAR_GROUP_NAMELEN);
+		offset += TarHeader.USTAR_GROUP_NAMELEN;
+		checkSum += Octal.putOctal(header.devMajor, outbuf, offset, TarHeader.USTAR_DEVLEN);
+		offset += TarHeader.USTAR_DEVLEN;
+		checkSum += Octal.putOctal(header.devMinor, outbuf, offset, TarHeader.USTAR_DEVLEN);
+		offset += TarHeader.USTAR_DEVLEN;
+		checkSum += TarHeader.putName(header.namePrefix, outbuf, offset, TarHeader.USTAR_FILENAME_PREFIX);
+		offset += TarHeader.USTAR_FILENAME_PREFIX;
 
 		for (; offset < outbuf.length;)
 			outbuf[offset++] = 0;
 
-		long checkSum = this.computeCheckSum(outbuf);
-
 		Octal.getCheckSumOctalBytes(checkSum, outbuf, csOffset, TarHeader.CHKSUMLEN);
 	}
 
@@ -0,0 +1,257 @@
+package org.unfoldingword.tools.jtar;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Random access to the entries of an uncompressed tar file.
+ *
+ * The headers are scanned once when the file is opened. Payloads are skipped
+ * by seeking to the next header so only the headers are read. Entries can then
+ * be read in any order through bounded views of the file.
+ *
+ */
+public class TarFile implements Closeable {
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private final Map<String, String> globalHeaders = new HashMap<String, String>();
+
+	/**
+	 * Opens and indexes a tar file
+	 *
+	 * @param tar
+	 * @throws IOException
+	 */
+	public TarFile(File tar) throws IOException {
+		this.file = new RandomAccessFile(tar, "r");
+		this.channel = file.getChannel();
+		try {
+			index();
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads each header and seeks over the payloads
+	 *
+	 * @throws IOException
+	 */
+	private void index() throws IOException {
+		long length = channel.size();
+		byte[] header = new byte[TarConstants.HEADER_BLOCK];
+		ByteBuffer buffer = ByteBuffer.wrap(header);
+		long position = 0;
+
+		while (position + TarConstants.HEADER_BLOCK <= length) {
+			buffer.clear();
+			readFully(buffer, position);
+			if (isEmpty(header)) {
+				break;
+			}
+
+			TarEntry entry = TarEntry.wrap(header);
+			long dataOffset = position + TarConstants.HEADER_BLOCK;
+			long size = entry.isDirectory() ? 0 : entry.getSize();
+			if (dataOffset + size > length) {
+				throw new IOException("Possible tar file corruption");
+			}
+
+			// pax extended headers describe the archive or the next entry and are not files
+			if (!entry.isPaxHeader()) {
+				String name = entry.getName();
+				entries.put(name, new Entry(name, entry.isDirectory(), position, dataOffset, size, entry.getModTime().getTime()));
+			} else if (entry.getHeader().linkFlag == TarHeader.LF_PAX_GLOBAL) {
+				globalHeaders.putAll(TarUtils.parsePaxRecords(readPaxHeader(entry, dataOffset)));
+			}
+
+			long blocks = (size + TarConstants.DATA_BLOCK - 1) / TarConstants.DATA_BLOCK;
+			position = dataOffset + blocks * TarConstants.DATA_BLOCK;
+		}
+	}
+
+	private byte[] readPaxHeader(TarEntry entry, long dataOffset) throws IOException {
+		if (entry.getSize() > TarInputStream.MAX_PAX_HEADER_SIZE) {
+			throw new IOException("The pax header[" + entry.getName() + "] is too large");
+		}
+		byte[] data = new byte[(int) entry.getSize()];
+		readFully(ByteBuffer.wrap(data), dataOffset);
+		return data;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position + buffer.position());
+			if (n == -1) {
+				throw new EOFException("Unexpected end of tar file");
+			}
+		}
+	}
+
+	private static boolean isEmpty(byte[] header) {
+		for (byte b : header) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the entries in the order they appear in the tar
+	 *
+	 * @return
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+	}
+
+	/**
+	 * Returns the records of the pax global headers in the tar
+	 *
+	 * @return
+	 */
+	public Map<String, String> getPaxGlobalHeaders() {
+		return Collections.unmodifiableMap(globalHeaders);
+	}
+
+	/**
+	 * Returns an entry by name
+	 *
+	 * @param name
+	 *            the entry name as it appears in the tar
+	 * @return the entry or null if it does not exist
+	 */
+	public Entry getEntry(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Reads the full header of an entry
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public TarEntry getTarEntry(Entry entry) throws IOException {
+		byte[] header = new byte[TarConstants.HEADER_BLOCK];
+		readFully(ByteBuffer.wrap(header), entry.headerOffset);
+		return new TarEntry(header);
+	}
+
+	/**
+	 * Returns a stream over the payload of an entry.
+	 * Streams use positional reads so several can be open at once, even on different threads.
+	 *
+	 * @param entry
+	 * @return
+	 */
+	public InputStream getInputStream(Entry entry) {
+		return new ChannelInputStream(channel, entry.dataOffset, entry.size);
+	}
+
+	/**
+	 * Returns a stream over the payload of an entry
+	 *
+	 * @param name
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public InputStream getInputStream(String name) throws FileNotFoundException {
+		Entry entry = entries.get(name);
+		if (entry == null || entry.directory) {
+			throw new FileNotFoundException(name + " was not found in the tar");
+		}
+		return getInputStream(entry);
+	}
+
+	/**
+	 * Maps the payload of an entry into memory
+	 *
+	 * @param entry
+	 * @return a read only buffer over the payload
+	 * @throws IOException
+	 */
+	public ByteBuffer map(Entry entry) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, entry.dataOffset, entry.size);
+	}
+
+	/**
+	 * Returns the channel of the tar file
+	 *
+	 * @return
+	 */
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * The location of an entry within the tar
+	 */
+	public static class Entry {
+		private final String name;
+		private final boolean directory;
+		private final long headerOffset;
+		private final long dataOffset;
+		private final long size;
+		private final long lastModified;
+
+		Entry(String name, boolean directory, long headerOffset, long dataOffset, long size, long lastModified) {
+			this.name = name;
+			this.directory = directory;
+			this.headerOffset = headerOffset;
+			this.dataOffset = dataOffset;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isDirectory() {
+			return directory;
+		}
+
+		public long getHeaderOffset() {
+			return headerOffset;
+		}
+
+		public long getDataOffset() {
+			return dataOffset;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the modification time in milliseconds
+		 *
+		 * @return
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+}
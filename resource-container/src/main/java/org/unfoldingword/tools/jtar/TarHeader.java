@@ -92,6 +92,8 @@ public class TarHeader {
 	public static final byte LF_DIR = (byte) '5';
 	public static final byte LF_FIFO = (byte) '6';
 	public static final byte LF_CONTIG = (byte) '7';
+	public static final byte LF_PAX_EXTENDED = (byte) 'x';
+	public static final byte LF_PAX_GLOBAL = (byte) 'g';
 
 	/*
 	 * Ustar header
@@ -122,22 +124,56 @@ public class TarHeader {
 	public int devMinor;
 	public StringBuffer namePrefix;
 
+	// TRICKY: the user name is looked up once rather than for every header
+	private static final String USER_NAME = defaultUserName();
+
 	public TarHeader() {
 		this.magic = new StringBuffer(TarHeader.USTAR_MAGIC);
 
 		this.name = new StringBuffer();
 		this.linkName = new StringBuffer();
 
+		this.userId = 0;
+		this.groupId = 0;
+		this.userName = new StringBuffer(USER_NAME);
+		this.groupName = new StringBuffer("");
+		this.namePrefix = new StringBuffer();
+	}
+
+	private static String defaultUserName() {
 		String user = System.getProperty("user.name", "");
 
 		if (user.length() > 31)
 			user = user.substring(0, 31);
 
-		this.userId = 0;
-		this.groupId = 0;
-		this.userName = new StringBuffer(user);
-		this.groupName = new StringBuffer("");
-		this.namePrefix = new StringBuffer();
+		return user;
+	}
+
+	/**
+	 * Parse a string field from a header buffer without building a
+	 * StringBuffer. Bytes are converted to chars the same way as
+	 * {@link #parseName(byte[], int, int)}.
+	 *
+	 * @param header
+	 *            The header buffer from which to parse.
+	 * @param offset
+	 *            The offset into the buffer from which to parse.
+	 * @param length
+	 *            The number of header bytes to parse.
+	 * @return The string value of the field.
+	 */
+	public static String parseString(byte[] header, int offset, int length) {
+		int end = offset;
+		int max = offset + length;
+		while (end < max && header[end] != 0)
+			end++;
+
+		char[] chars = new char[end - offset];
+		for (int i = 0; i < chars.length; ++i) {
+			chars[i] = (char) header[offset + i];
+		}
+
+		return new String(chars);
 	}
 
 	/**
@@ -190,6 +226,30 @@ public class TarHeader {
 		return offset + length;
 	}
 
+	/**
+	 * Writes an entry name in the same format as
+	 * {@link #getNameBytes(StringBuffer, byte[], int, int)}.
+	 * 
+	 * @return The sum of the bytes written so it can be added to the header
+	 *         checksum.
+	 */
+	public static int putName(StringBuffer name, byte[] buf, int offset, int length) {
+		int sum = 0;
+		int i;
+
+		for (i = 0; i < length && i < name.length(); ++i) {
+			byte b = (byte) name.charAt(i);
+			buf[offset + i] = b;
+			sum += b & 0xFF;
+		}
+
+		for (; i < length; ++i) {
+			buf[offset + i] = 0;
+		}
+
+		return sum;
+	}
+
 	/**
 	 * Creates a new header for a file/directory entry.
 	 * 
@@ -17,9 +17,16 @@
 
 package org.unfoldingword.tools.jtar;
 
+import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author Kamran Zafar
@@ -28,13 +35,40 @@ import java.io.InputStream;
 public class TarInputStream extends FilterInputStream {
 
 	private static final int SKIP_BUFFER_SIZE = 2048;
+	static final int MAX_PAX_HEADER_SIZE = 8 * 1024 * 1024;
 	private TarEntry currentEntry;
 	private long currentFileSize;
 	private long bytesRead;
 	private boolean defaultSkip = false;
+	private final Map<String, String> globalHeaders = new HashMap<String, String>();
+	/**
+	 * The channel of the file being read or null if the stream can not seek
+	 */
+	private final FileChannel channel;
 
+	/**
+	 * Reads a tar from a stream. When the stream is a {@link FileInputStream}
+	 * unread payloads are skipped by moving the file position instead of
+	 * reading them.
+	 * 
+	 * @param in
+	 */
 	public TarInputStream(InputStream in) {
 		super(in);
+		channel = in instanceof FileInputStream ? ((FileInputStream) in).getChannel() : null;
+		currentFileSize = 0;
+		bytesRead = 0;
+	}
+
+	/**
+	 * Reads a tar from the current position of a file channel. Unread payloads
+	 * are skipped by moving the channel position instead of reading them.
+	 * 
+	 * @param channel
+	 */
+	public TarInputStream(FileChannel channel) {
+		super(Channels.newInputStream(channel));
+		this.channel = channel;
 		currentFileSize = 0;
 		bytesRead = 0;
 	}
@@ -116,40 +150,110 @@ public class TarInputStream extends FilterInputStream {
 	 * @throws IOException
 	 */
 	public TarEntry getNextEntry() throws IOException {
+		return getNextEntry(new byte[TarConstants.HEADER_BLOCK]);
+	}
+
+	/**
+	 * Returns the next entry in the tar file. The header is read directly into
+	 * the caller owned buffer and the entry decodes its fields from the buffer
+	 * when they are accessed, so the same buffer can be reused for every entry
+	 * without allocating.
+	 * 
+	 * Pax extended headers are not returned. The records of global headers are
+	 * kept, see {@link #getPaxGlobalHeaders()}.
+	 * 
+	 * The returned entry is only valid until the buffer is reused.
+	 * 
+	 * @param header
+	 *            a buffer of at least {@link TarConstants#HEADER_BLOCK} bytes
+	 * @return TarEntry
+	 * @throws IOException
+	 */
+	public TarEntry getNextEntry(byte[] header) throws IOException {
+		TarEntry entry = readNextEntry(header);
+		while (entry != null && entry.isPaxHeader()) {
+			if (entry.getHeader().linkFlag == TarHeader.LF_PAX_GLOBAL) {
+				globalHeaders.putAll(TarUtils.parsePaxRecords(readEntry(entry)));
+			}
+			entry = readNextEntry(header);
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the records of the pax global headers read so far
+	 * 
+	 * @return
+	 */
+	public Map<String, String> getPaxGlobalHeaders() {
+		return Collections.unmodifiableMap(globalHeaders);
+	}
+
+	private byte[] readEntry(TarEntry entry) throws IOException {
+		if (entry.getSize() > MAX_PAX_HEADER_SIZE) {
+			throw new IOException("The pax header[" + entry.getName() + "] is too large");
+		}
+		byte[] data = new byte[(int) entry.getSize()];
+		int tr = 0;
+		while (tr < data.length) {
+			int res = read(data, tr, data.length - tr);
+			if (res < 0) {
+				throw new IOException("Possible tar file corruption");
+			}
+			tr += res;
+		}
+		return data;
+	}
+
+	private TarEntry readNextEntry(byte[] header) throws IOException {
 		closeCurrentEntry();
 
-		byte[] header = new byte[TarConstants.HEADER_BLOCK];
-		byte[] theader = new byte[TarConstants.HEADER_BLOCK];
 		int tr = 0;
 
 		// Read full header
 		while (tr < TarConstants.HEADER_BLOCK) {
-			int res = read(theader, 0, TarConstants.HEADER_BLOCK - tr);
+			int res = read(header, tr, TarConstants.HEADER_BLOCK - tr);
 
 			if (res < 0) {
 				break;
 			}
 
-			System.arraycopy(theader, 0, header, tr, res);
 			tr += res;
 		}
 
-		// Check if record is null
-		boolean eof = true;
-		for (byte b : header) {
-			if (b != 0) {
-				eof = false;
-				break;
-			}
+		if (tr < TarConstants.HEADER_BLOCK) {
+			// clear what is left of the previous header
+			Arrays.fill(header, tr, TarConstants.HEADER_BLOCK, (byte) 0);
 		}
 
-		if (!eof) {
-			currentEntry = new TarEntry(header);
+		if (tr > 0 && !isEmptyRecord(header, tr)) {
+			currentEntry = TarEntry.wrap(header);
 		}
 
 		return currentEntry;
 	}
 
+	/**
+	 * Checks if a record is all zeros. A real header always has a name and a
+	 * checksum so those are checked first and the full scan only runs on the
+	 * end of archive records.
+	 * 
+	 * @param header
+	 * @param length
+	 * @return
+	 */
+	private static boolean isEmptyRecord(byte[] header, int length) {
+		if (header[0] != 0 || (length > TarEntry.CHKSUM_OFFSET && header[TarEntry.CHKSUM_OFFSET] != 0)) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (header[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Returns the current offset (in bytes) from the beginning of the stream. 
 	 * This can be used to find out at which point in a tar file an entry's content begins, for instance. 
@@ -212,6 +316,10 @@ public class TarInputStream extends FilterInputStream {
 	 */
 	@Override
 	public long skip(long n) throws IOException {
+		if (channel != null) {
+			return seek(n);
+		}
+
 		if (defaultSkip) {
 			// use skip method of parent stream
 			// may not work if skip not implemented by parent
@@ -239,6 +347,34 @@ public class TarInputStream extends FilterInputStream {
 		return n - left;
 	}
 
+	/**
+	 * Skips 'n' bytes by moving the channel position. Like reading, this stops
+	 * at the end of the current entry and updates the byte counters.
+	 * 
+	 * @param n
+	 * @return the number of bytes skipped
+	 * @throws IOException
+	 */
+	private long seek(long n) throws IOException {
+		if (currentEntry != null) {
+			n = Math.min(n, currentEntry.getSize() - currentFileSize);
+		}
+
+		long position = channel.position();
+		n = Math.min(n, channel.size() - position);
+		if (n <= 0) {
+			return 0;
+		}
+
+		channel.position(position + n);
+		if (currentEntry != null) {
+			currentFileSize += n;
+		}
+		bytesRead += n;
+
+		return n;
+	}
+
 	public boolean isDefaultSkip() {
 		return defaultSkip;
 	}
@@ -19,30 +19,50 @@ package org.unfoldingword.tools.jtar;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 /**
  * @author Kamran Zafar
  * 
  */
 public class TarOutputStream extends OutputStream {
+    private static final byte[] ZERO_BLOCK = new byte[TarConstants.EOF_BLOCK];
+    private static final int COPY_BUFFER_SIZE = 8192;
+
 	private final OutputStream out;
+    /**
+     * The channel of the file being written to or null if the stream is not backed by a file
+     */
+    private final FileChannel channel;
     private long bytesWritten;
     private long currentFileSize;
     private TarEntry currentEntry;
+    private byte[] copyBuffer;
 
     public TarOutputStream(OutputStream out) {
         this.out = out;
+        this.channel = null;
         bytesWritten = 0;
         currentFileSize = 0;
     }
 
 	public TarOutputStream(final File fout) throws FileNotFoundException {
-		this.out = new BufferedOutputStream(new FileOutputStream(fout));
+		this(new FileOutputStream(fout));
+	}
+
+	/**
+	 * Writes to a file. Files added with {@link #putFile(File, TarEntry)} are
+	 * transferred directly between the file channels.
+	 */
+	public TarOutputStream(final FileOutputStream fout) {
+		this.out = new BufferedOutputStream(fout);
+		this.channel = fout.getChannel();
 		bytesWritten = 0;
 		currentFileSize = 0;
 	}
@@ -57,7 +77,9 @@ public class TarOutputStream extends OutputStream {
 		if (append && fileSize > TarConstants.EOF_BLOCK) {
 			raf.seek(fileSize - TarConstants.EOF_BLOCK);
 		}
-		out = new BufferedOutputStream(new FileOutputStream(raf.getFD()));
+		FileOutputStream fos = new FileOutputStream(raf.getFD());
+		out = new BufferedOutputStream(fos);
+		channel = fos.getChannel();
 	}
 
     /**
@@ -68,7 +90,7 @@ public class TarOutputStream extends OutputStream {
     @Override
     public void close() throws IOException {
         closeCurrentEntry();
-        write( new byte[TarConstants.EOF_BLOCK] );
+        write( ZERO_BLOCK );
         out.close();
     }
     /**
@@ -110,6 +132,14 @@ public class TarOutputStream extends OutputStream {
         }        
     }
 
+    /**
+     * Returns the number of bytes written to the underlying stream so far.
+     * This includes the headers, padding and (once closed) the EOF record.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
     /**
      * Writes the next tar entry header on the stream
      * 
@@ -127,6 +157,65 @@ public class TarOutputStream extends OutputStream {
         currentEntry = entry;
     }
 
+    /**
+     * Writes the entry header followed by the contents of the file.
+     * When the stream is backed by a file the contents are transferred between
+     * the file channels without being copied through the heap.
+     * 
+     * The size of the entry is taken from the file once it is opened, so a
+     * file that changed after the entry was created is archived at its current
+     * size. Data appended while the file is being copied is left out.
+     * 
+     * @param file
+     * @param entry
+     * @throws IOException if the file shrinks while it is being copied
+     */
+    public void putFile(File file, TarEntry entry) throws IOException {
+        if (entry.isDirectory()) {
+            putNextEntry( entry );
+            return;
+        }
+
+        FileInputStream in = new FileInputStream( file );
+        try {
+            long size = in.getChannel().size();
+            entry.setSize( size );
+            putNextEntry( entry );
+            if (channel != null) {
+                out.flush();
+                FileChannel source = in.getChannel();
+                long position = 0;
+                while (position < size) {
+                    long n = source.transferTo( position, size - position, channel );
+                    if (n <= 0) {
+                        break;
+                    }
+                    position += n;
+                }
+                bytesWritten += position;
+                currentFileSize += position;
+                if (position < size) {
+                    throw new IOException( "The file[" + file + "] was truncated while it was being added" );
+                }
+            } else {
+                if (copyBuffer == null) {
+                    copyBuffer = new byte[COPY_BUFFER_SIZE];
+                }
+                long remaining = size;
+                int n;
+                while (remaining > 0 && ( n = in.read( copyBuffer, 0, (int) Math.min( copyBuffer.length, remaining ) ) ) != -1) {
+                    write( copyBuffer, 0, n );
+                    remaining -= n;
+                }
+                if (remaining > 0) {
+                    throw new IOException( "The file[" + file + "] was truncated while it was being added" );
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * Closes the current tar entry
      * 
@@ -156,7 +245,7 @@ public class TarOutputStream extends OutputStream {
             int extra = (int) ( bytesWritten % TarConstants.DATA_BLOCK );
 
             if (extra > 0) {
-                write( new byte[TarConstants.DATA_BLOCK - extra] );
+                write( ZERO_BLOCK, 0, TarConstants.DATA_BLOCK - extra );
             }
         }
     }
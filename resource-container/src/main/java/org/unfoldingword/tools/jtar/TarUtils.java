@@ -18,6 +18,11 @@
 package org.unfoldingword.tools.jtar;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Kamran
@@ -25,41 +30,56 @@ import java.io.File;
  */
 public class TarUtils {
 	/**
-	 * Determines the tar file size of the given folder/file path
+	 * Determines the tar file size of the given folder/file path.
+	 * The folder is walked once and each file is only checked once.
 	 * 
 	 * @param path
 	 * @return
 	 */
 	public static long calculateTarSize(File path) {
-		return tarSize(path) + TarConstants.EOF_BLOCK;
+		return tarSize(path, path.isDirectory()) + TarConstants.EOF_BLOCK;
 	}
 
-	private static long tarSize(File dir) {
+	/**
+	 * Determines the tar file size of the given entries. The entries already
+	 * hold the file sizes so the files are not checked again.
+	 * 
+	 * @param entries
+	 * @return
+	 */
+	public static long calculateTarSize(List<TarEntry> entries) {
 		long size = 0;
+		for (TarEntry entry : entries) {
+			size += entry.isDirectory() ? TarConstants.HEADER_BLOCK : calculateEntrySize(entry.getSize());
+		}
+		return size + TarConstants.EOF_BLOCK;
+	}
 
-		if (dir.isFile()) {
-			return entrySize(dir.length());
-		} else {
-			File[] subFiles = dir.listFiles();
-
-			if (subFiles != null && subFiles.length > 0) {
-				for (File file : subFiles) {
-					if (file.isFile()) {
-						size += entrySize(file.length());
-					} else {
-						size += tarSize(file);
-					}
-				}
-			} else {
-				// Empty folder header
-				return TarConstants.HEADER_BLOCK;
-			}
+	private static long tarSize(File file, boolean directory) {
+		if (!directory) {
+			return calculateEntrySize(file.length());
 		}
 
+		File[] subFiles = file.listFiles();
+		if (subFiles == null || subFiles.length == 0) {
+			// Empty folder header
+			return TarConstants.HEADER_BLOCK;
+		}
+
+		long size = 0;
+		for (File subFile : subFiles) {
+			size += tarSize(subFile, subFile.isDirectory());
+		}
 		return size;
 	}
 
-	private static long entrySize(long fileSize) {
+	/**
+	 * Determines the size of a file entry including the header and padding
+	 * 
+	 * @param fileSize
+	 * @return
+	 */
+	public static long calculateEntrySize(long fileSize) {
 		long size = 0;
 		size += TarConstants.HEADER_BLOCK; // Header
 		size += fileSize; // File size
@@ -73,6 +93,63 @@ public class TarUtils {
 		return size;
 	}
 
+	/**
+	 * Encodes a pax extended header record e.g. "18 comment=value\n". The
+	 * length at the start of the record includes its own digits.
+	 * 
+	 * @param key
+	 * @param value
+	 * @return
+	 * @throws UnsupportedEncodingException
+	 */
+	public static byte[] formatPaxRecord(String key, String value) throws UnsupportedEncodingException {
+		String body = " " + key + "=" + value + "\n";
+		int bodyLength = body.getBytes("UTF-8").length;
+		int length = bodyLength + String.valueOf(bodyLength).length();
+		if (String.valueOf(length).length() != String.valueOf(bodyLength).length()) {
+			length = bodyLength + String.valueOf(length).length();
+		}
+		return (length + body).getBytes("UTF-8");
+	}
+
+	/**
+	 * Decodes the records of a pax extended header
+	 * 
+	 * @param data
+	 *            the payload of the header entry
+	 * @return the values by key
+	 * @throws IOException
+	 *             if the records are malformed
+	 */
+	public static Map<String, String> parsePaxRecords(byte[] data) throws IOException {
+		Map<String, String> records = new LinkedHashMap<String, String>();
+		int position = 0;
+		while (position < data.length && data[position] != 0) {
+			int length = 0;
+			int i = position;
+			while (i < data.length && data[i] >= '0' && data[i] <= '9') {
+				length = length * 10 + (data[i++] - '0');
+				// the record cannot be longer than the rest of the header. This also prevents overflow
+				if (length > data.length - position) {
+					throw new IOException("Malformed pax header");
+				}
+			}
+			int end = position + length;
+			// the length covers its own digits, the space and the newline
+			if (i == position || i >= data.length || data[i] != ' ' || length < i - position + 2 || data[end - 1] != '\n') {
+				throw new IOException("Malformed pax header");
+			}
+			String record = new String(data, i + 1, end - i - 2, "UTF-8");
+			int separator = record.indexOf('=');
+			if (separator < 0) {
+				throw new IOException("Malformed pax header");
+			}
+			records.put(record.substring(0, separator), record.substring(separator + 1));
+			position = end;
+		}
+		return records;
+	}
+
 	public static String trim(String s, char c) {
 		StringBuffer tmp = new StringBuffer(s);
 		for (int i = 0; i < tmp.length(); i++) {
@@ -1,16 +1,34 @@
 package org.unfoldingword.resourcecontainer;
 
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
 import org.json.JSONObject;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
+import org.unfoldingword.tools.jtar.TarConstants;
+import org.unfoldingword.tools.jtar.TarEntry;
+import org.unfoldingword.tools.jtar.TarFile;
+import org.unfoldingword.tools.jtar.TarHeader;
+import org.unfoldingword.tools.jtar.TarInputStream;
+import org.unfoldingword.tools.jtar.TarOutputStream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 
@@ -38,6 +56,245 @@ public class ContainerUnitTest {
         assertNotNull(container.config);
     }
     @Test
+    public void loadResourceContainerWithoutYaml() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resource.getPath());
+
+        ResourceContainer container = ResourceContainer.load(containerDir);
+        assertFalse(container.config().isEmpty());
+        assertSame(container.config, container.config());
+        assertSame(container.toc, container.toc());
+
+        ResourceContainer lazy = ResourceContainer.load(containerDir, ResourceContainer.LAZY_YAML);
+        assertNull(lazy.config);
+        assertNull(lazy.toc);
+        assertEquals(container.config, lazy.config());
+        assertSame(lazy.config(), lazy.config());
+        assertEquals(container.toc, lazy.toc());
+        assertSame(lazy.toc(), lazy.toc());
+
+        ResourceContainer skipped = ResourceContainer.load(containerDir, ResourceContainer.SKIP_YAML);
+        assertEquals(container.slug, skipped.slug);
+        assertEquals(container.readChunk("front", "title"), skipped.readChunk("front", "title"));
+        assertTrue(skipped.config().isEmpty());
+        assertEquals(new HashMap(), skipped.toc());
+        assertSame(skipped.toc(), skipped.toc);
+    }
+    @Test
+    public void loadMetadataSnapshot() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resourceDir.getRoot(), "snapshot-en_tit_ulb");
+        FileUtil.copyDirectory(new File(resource.getPath()), containerDir, null);
+        ageMetadata(containerDir);
+        File snapshotDir = new File(resourceDir.getRoot(), "snapshots");
+        int files = containerDir.list().length;
+
+        ResourceContainer parsed = ResourceContainer.load(containerDir, ResourceContainer.PARSE_YAML, snapshotDir);
+        Map config = parsed.config();
+        Object toc = parsed.toc();
+        MetadataSnapshot snapshot = new MetadataSnapshot(containerDir, snapshotDir);
+        assertTrue(snapshot.getFile().exists());
+        assertEquals(1, snapshotDir.list().length);
+        // the container directory is left alone
+        assertEquals(files, containerDir.list().length);
+
+        assertEquals(parsed.info.toString(), snapshot.read("package.json").toString());
+        assertEquals(config, snapshot.read("content/config.yml"));
+        assertEquals(toc, snapshot.read("content/toc.yml"));
+
+        ResourceContainer cached = ResourceContainer.load(containerDir, ResourceContainer.PARSE_YAML, snapshotDir);
+        assertEquals(parsed.slug, cached.slug);
+        assertEquals(parsed.language.name, cached.language.name);
+        assertEquals(config, cached.config());
+        assertEquals(toc, cached.toc());
+
+        // stale sections are parsed again
+        File tocFile = new File(containerDir, "content/toc.yml");
+        FileUtil.writeStringToFile(tocFile, "- chapter: \"01\"\n");
+        tocFile.setLastModified(System.currentTimeMillis() - 60000);
+        assertNull(snapshot.read("content/toc.yml"));
+        assertEquals(config, snapshot.read("content/config.yml"));
+        ResourceContainer changed = ResourceContainer.load(containerDir, ResourceContainer.PARSE_YAML, snapshotDir);
+        assertEquals(1, ((List)changed.toc()).size());
+        assertEquals(changed.toc(), snapshot.read("content/toc.yml"));
+        assertEquals(1, snapshotDir.list().length);
+
+        // a container with the same name elsewhere does not use the snapshot
+        File otherDir = new File(new File(resourceDir.getRoot(), "other"), containerDir.getName());
+        FileUtil.copyDirectory(containerDir, otherDir, null);
+        ageMetadata(otherDir);
+        assertNull(new MetadataSnapshot(otherDir, snapshotDir).read("package.json"));
+    }
+    @Test
+    public void loadCorruptMetadataSnapshot() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resourceDir.getRoot(), "corrupt-en_tit_ulb");
+        FileUtil.copyDirectory(new File(resource.getPath()), containerDir, null);
+        ageMetadata(containerDir);
+        File snapshotDir = new File(resourceDir.getRoot(), "snapshots");
+        ResourceContainer parsed = ResourceContainer.load(containerDir, ResourceContainer.PARSE_YAML, snapshotDir);
+
+        MetadataSnapshot snapshot = new MetadataSnapshot(containerDir, snapshotDir);
+        byte[] data = new byte[(int)snapshot.getFile().length()];
+        FileInputStream in = new FileInputStream(snapshot.getFile());
+        assertEquals(data.length, in.read(data));
+        in.close();
+
+        // lengths and sizes anywhere in the snapshot may be negative or huge
+        for(int i = 0; i + 4 <= data.length; i ++) {
+            for(byte value:new byte[]{(byte)0xff, (byte)0x7f}) {
+                byte[] corrupt = data.clone();
+                Arrays.fill(corrupt, i, i + 4, value);
+                FileOutputStream out = new FileOutputStream(snapshot.getFile());
+                out.write(corrupt);
+                out.close();
+                snapshot.read("package.json");
+                snapshot.read("content/config.yml");
+                snapshot.read("content/toc.yml");
+            }
+        }
+
+        ResourceContainer loaded = ResourceContainer.load(containerDir, ResourceContainer.PARSE_YAML, snapshotDir);
+        assertEquals(parsed.config(), loaded.config());
+    }
+
+    /**
+     * Moves the modification times of the metadata files into the past so the snapshot can trust them
+     * @param containerDir
+     */
+    private static void ageMetadata(File containerDir) {
+        long time = System.currentTimeMillis() - 60000;
+        new File(containerDir, "package.json").setLastModified(time);
+        new File(containerDir, "content/config.yml").setLastModified(time);
+        new File(containerDir, "content/toc.yml").setLastModified(time);
+    }
+    @Test
+    public void shareContainersFromPool() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File[] dirs = new File[3];
+        for(int i = 0; i < dirs.length; i ++) {
+            dirs[i] = new File(resourceDir.getRoot(), "pool" + i + "-en_tit_ulb");
+            FileUtil.copyDirectory(new File(resource.getPath()), dirs[i], null);
+        }
+
+        ContainerPool pool = new ContainerPool(2, Long.MAX_VALUE);
+        ResourceContainer container = pool.get(dirs[0]);
+        assertSame(container, pool.get(new File(dirs[0].getParentFile(), "./" + dirs[0].getName())));
+
+        // reloaded when package.json changes
+        File packageFile = new File(dirs[0], "package.json");
+        FileUtil.writeStringToFile(packageFile, FileUtil.readFileToString(packageFile) + "\n");
+        ResourceContainer reloaded = pool.get(dirs[0]);
+        assertNotSame(container, reloaded);
+        assertSame(reloaded, pool.get(dirs[0]));
+        assertEquals(1, pool.size());
+
+        // the least recently used container is evicted
+        ResourceContainer second = pool.get(dirs[1]);
+        pool.get(dirs[0]);
+        pool.get(dirs[2]);
+        assertEquals(2, pool.size());
+        assertSame(reloaded, pool.get(dirs[0]));
+        assertNotSame(second, pool.get(dirs[1]));
+
+        // limited by weight
+        ContainerPool light = new ContainerPool(10, 1);
+        light.get(dirs[0]);
+        ResourceContainer last = light.get(dirs[1]);
+        assertEquals(1, light.size());
+        assertSame(last, light.get(dirs[1]));
+        assertTrue(light.weight() > 1);
+        light.evict(dirs[1]);
+        assertEquals(0, light.size());
+        assertEquals(0, light.weight());
+    }
+    @Test
+    public void orderChaptersAndChunks() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resourceDir.getRoot(), "index-en_tit_ulb");
+        FileUtil.copyDirectory(new File(resource.getPath()), containerDir, null);
+
+        ResourceContainer container = ResourceContainer.load(containerDir);
+        assertArrayEquals(new String[]{"front", "01", "02", "03"}, container.chapters());
+        assertArrayEquals(new String[]{"01", "04", "06", "08", "10", "12", "14", "15"}, container.chunks("01"));
+        assertEquals(0, container.chunks("missing").length);
+
+        // chunks missing from the toc follow in natural order
+        FileUtil.writeStringToFile(new File(containerDir, "content/01/100.usfm"), "");
+        FileUtil.writeStringToFile(new File(containerDir, "content/01/20.usfm"), "");
+        assertEquals(8, container.chunks("01").length);
+        container.invalidateIndex();
+        String[] chunks = container.chunks("01");
+        assertEquals(10, chunks.length);
+        assertEquals("20", chunks[8]);
+        assertEquals("100", chunks[9]);
+
+        assertTrue(ContentIndex.compareNatural("2", "10") < 0);
+        assertTrue(ContentIndex.compareNatural("a9b", "a10a") < 0);
+        assertTrue(ContentIndex.compareNatural("02", "10") < 0);
+        assertTrue(ContentIndex.compareNatural("01", "1") != 0);
+    }
+    @Test
+    public void cacheChunks() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resourceDir.getRoot(), "cache-en_tit_ulb");
+        FileUtil.copyDirectory(new File(resource.getPath()), containerDir, null);
+        File chunkFile = new File(containerDir, "content/01/01.usfm");
+        File otherChunkFile = new File(containerDir, "content/01/04.usfm");
+        long time = System.currentTimeMillis() - 60000;
+        chunkFile.setLastModified(time);
+        otherChunkFile.setLastModified(time);
+
+        ResourceContainer container = ResourceContainer.load(containerDir);
+        String chunk = container.readChunk("01", "01");
+        LruChunkCache cache = new LruChunkCache(1024 * 1024);
+        ResourceContainer.setChunkCache(cache);
+        try {
+            assertEquals(chunk, container.readChunk("01", "01"));
+            assertEquals(chunk, ResourceContainer.load(containerDir).readChunk("01", "01"));
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+            assertEquals("", container.readChunk("01", "missing"));
+
+            // changed chunks are read again
+            FileUtil.writeStringToFile(chunkFile, "changed");
+            chunkFile.setLastModified(time + 1000);
+            assertEquals("changed", container.readChunk("01", "01").trim());
+            assertEquals(2, cache.getMissCount());
+            assertEquals("changed", container.readChunk("01", "01").trim());
+            assertEquals(2, cache.getHitCount());
+
+            // a chunk changed within the same modification time is detected by its length
+            FileUtil.writeStringToFile(chunkFile, "changed again");
+            chunkFile.setLastModified(time + 1000);
+            assertEquals("changed again", container.readChunk("01", "01").trim());
+            assertEquals(3, cache.getMissCount());
+
+            // the cache is shared when the container is loaded through another path
+            File otherPath = new File(new File(containerDir, "content"), "..");
+            assertEquals("changed again", ResourceContainer.load(otherPath).readChunk("01", "01").trim());
+            assertEquals(3, cache.getHitCount());
+
+            // the least recently used chunk is evicted
+            String other = container.readChunk("01", "04");
+            LruChunkCache small = new LruChunkCache(cache.getBytes() - 1);
+            ResourceContainer.setChunkCache(small);
+            container.readChunk("01", "01");
+            assertEquals(other, container.readChunk("01", "04"));
+            assertEquals(1, small.size());
+            assertEquals(1, small.getEvictionCount());
+            assertTrue(small.getBytes() <= small.getMaxBytes());
+        } finally {
+            ResourceContainer.setChunkCache(null);
+        }
+    }
+    @Test
     public void closeResourceContainer() throws Exception {
         ClassLoader classLoader = this.getClass().getClassLoader();
         URL resource = classLoader.getResource("open-en_tit_ulb");
@@ -45,6 +302,341 @@ public class ContainerUnitTest {
         assertTrue(archive.exists());
     }
     @Test
+    public void closeResourceContainerWithoutTempFile() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resource.getPath());
+        File archive = ResourceContainer.close(containerDir);
+        assertTrue(archive.exists());
+        assertFalse(new File(containerDir.getAbsolutePath() + ".tmp.tar").exists());
+
+        File dir = new File(resourceDir.getRoot(), "reopen-en_tit_ulb");
+        ResourceContainer container = ResourceContainer.open(archive, dir);
+        assertEquals(8, container.chunks("01").length);
+    }
+    @Test
+    public void reportClosedArchiveSize() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("closed-en_tit_ulb.tsrc");
+        File dir = new File(resourceDir.getRoot(), "stats-en_tit_ulb");
+        ResourceContainer.open(new File(resource.getPath()), dir);
+
+        ResourceContainer.CloseStats stats = new ResourceContainer.CloseStats();
+        File archive = ResourceContainer.close(dir, ArchiveCodecs.BZIP2, 1, stats);
+        assertEquals(archive.length(), stats.archiveBytes);
+        assertTrue(stats.bytes > stats.archiveBytes);
+        assertEquals(0, stats.bytes % 512);
+    }
+    @Test
+    public void closeUnchangedResourceContainer() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("closed-en_tit_ulb.tsrc");
+        File dir = new File(resourceDir.getRoot(), "incremental-en_tit_ulb");
+        ResourceContainer.open(new File(resource.getPath()), dir);
+        File title = new File(dir, "content/front/title.usfm");
+
+        File archive = ResourceContainer.close(dir);
+        archive.setLastModified(0);
+        ResourceContainer.CloseStats stats = new ResourceContainer.CloseStats();
+        assertEquals(archive, ResourceContainer.close(dir, ArchiveCodecs.BZIP2, 1, stats));
+        assertTrue(stats.upToDate);
+        assertEquals(0, archive.lastModified());
+
+        FileUtil.writeStringToFile(title, "Changed");
+        ResourceContainer.close(dir);
+        assertTrue(archive.lastModified() > 0);
+        ResourceContainer container = ResourceContainer.open(archive, new File(resourceDir.getRoot(), "incremental-check"));
+        assertEquals("Changed", container.readChunk("front", "title").trim());
+        assertFalse(new File(container.path, "pax_global_header").exists());
+
+        // indexed archives only compress the changed files
+        title.setLastModified(System.currentTimeMillis() - 60000);
+        archive = ResourceContainer.closeIndexed(dir);
+        archive.setLastModified(0);
+        ResourceContainer.closeIndexed(dir);
+        assertEquals(0, archive.lastModified());
+
+        FileUtil.writeStringToFile(title, "Changed again");
+        ResourceContainer.closeIndexed(dir);
+        assertTrue(archive.lastModified() > 0);
+        container = ResourceContainer.mount(archive);
+        assertEquals("Changed again", container.readChunk("front", "title").trim());
+        assertEquals(4, container.chapters().length);
+        container.unmount();
+    }
+    @Test
+    public void closeResourceContainerInParallel() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File archive = ResourceContainer.close(new File(resource.getPath()), 4);
+        assertTrue(archive.exists());
+
+        File dir = new File(resourceDir.getRoot(), "parallel-en_tit_ulb");
+        ResourceContainer container = ResourceContainer.open(archive, dir);
+        assertEquals(4, container.chapters().length);
+        assertEquals("Titus", container.readChunk("front", "title").trim());
+    }
+    @Test
+    public void tarWithReadAhead() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+
+        File sequential = new File(resourceDir.getRoot(), "sequential.tar");
+        TarOutputStream out = new TarOutputStream(sequential);
+        TarUtil.tar(null, resource.getPath(), out, null);
+        out.close();
+
+        File readAhead = new File(resourceDir.getRoot(), "read-ahead.tar");
+        out = new TarOutputStream(readAhead);
+        TarUtil.tar(null, resource.getPath(), out, null, 3);
+        out.close();
+
+        assertTrue(sequential.length() > 0);
+        FileInputStream expected = new FileInputStream(sequential);
+        FileInputStream actual = new FileInputStream(readAhead);
+        try {
+            assertArrayEquals(IOUtils.toByteArray(expected), IOUtils.toByteArray(actual));
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+    @Test
+    public void untarTruncatedTar() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TarOutputStream out = new TarOutputStream(bytes);
+        byte[] data = new byte[100000];
+        out.putNextEntry(new TarEntry(TarHeader.createHeader("content/01/01.usfm", data.length, 0, false, 0644)));
+        out.write(data);
+        out.close();
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), TarConstants.HEADER_BLOCK + data.length / 2);
+
+        File dir = resourceDir.newFolder("truncated");
+        try {
+            TarUtil.untar(new TarInputStream(new ByteArrayInputStream(truncated)), dir.getAbsolutePath());
+            fail("The truncated entry should not be extracted");
+        } catch (IOException e) {
+            // a partial file would be skipped when the container is opened again
+            assertFalse(new File(dir, "content/01/01.usfm").exists());
+        }
+    }
+    @Test
+    public void openResourceContainerWithWriterThreads() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("closed-en_tit_ulb.tsrc");
+        File archive = new File(resource.getPath());
+
+        ResourceContainer.ExtractStats stats = new ResourceContainer.ExtractStats();
+        File dir = new File(resourceDir.getRoot(), "pipelined-en_tit_ulb");
+        ResourceContainer container = ResourceContainer.open(archive, dir, null, 3, stats);
+        assertEquals(4, container.chapters().length);
+        assertEquals("Titus", container.readChunk("front", "title").trim());
+
+        ResourceContainer.ExtractStats singleStats = new ResourceContainer.ExtractStats();
+        ResourceContainer single = ResourceContainer.open(archive, new File(resourceDir.getRoot(), "single-en_tit_ulb"), null, 1, singleStats);
+        assertEquals(singleStats.entries, stats.entries);
+        assertEquals(singleStats.bytes, stats.bytes);
+        assertTrue(stats.entries > 0);
+        for(String chapter:single.chapters()) {
+            assertEquals(single.chunks(chapter).length, container.chunks(chapter).length);
+        }
+        assertEquals(single.readChunk("03", "15"), container.readChunk("03", "15"));
+    }
+    @Test
+    public void compressSegmentsInParallel() throws Exception {
+        byte[] data = new byte[100000];
+        for(int i = 0; i < data.length; i ++) {
+            data[i] = (byte)((i * 31) % 7 + i / 1000);
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        ParallelBZip2OutputStream out = new ParallelBZip2OutputStream(compressed, executor, 3, 7000);
+        out.write(data, 0, 50);
+        out.write(data, 50, data.length - 50);
+        out.close();
+        executor.shutdown();
+
+        // decoders that stop after the first stream must read all of the segments
+        BZip2CompressorInputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed.toByteArray()), false);
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+    }
+    @Test
+    public void decompressBlocksInParallel() throws Exception {
+        byte[] data = new byte[100000];
+        for(int i = 0; i < data.length; i ++) {
+            data[i] = (byte)((i * 17) % 5 + i / 1000);
+        }
+        File archive = resourceDir.newFile("multi-stream.bz2");
+        // concatenated streams as written by pbzip2
+        FileOutputStream fileOut = new FileOutputStream(archive);
+        for(int i = 0; i < data.length; i += 7000) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            BZip2CompressorOutputStream out = new BZip2CompressorOutputStream(stream);
+            out.write(data, i, Math.min(7000, data.length - i));
+            out.close();
+            fileOut.write(stream.toByteArray());
+        }
+        fileOut.close();
+
+        long[] blocks = ParallelBZip2InputStream.findBlocks(archive);
+        assertEquals(30, blocks.length);
+        // the first block follows the stream header
+        assertEquals(32, blocks[0]);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        ParallelBZip2InputStream in = new ParallelBZip2InputStream(archive, blocks, executor, 3);
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+        in.close();
+
+        // blocks within a single stream
+        File single = resourceDir.newFile("multi-block.bz2");
+        ParallelBZip2OutputStream out = new ParallelBZip2OutputStream(new FileOutputStream(single), executor, 3, 7000);
+        out.write(data);
+        out.close();
+        blocks = ParallelBZip2InputStream.findBlocks(single);
+        assertEquals(30, blocks.length);
+        in = new ParallelBZip2InputStream(single, blocks, executor, 3);
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+        in.close();
+        executor.shutdown();
+    }
+    @Test
+    public void openResourceContainerArchiveInParallel() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("closed-en_tit_ulb.tsrc");
+        File archivePath = new File(resource.getPath());
+        assertEquals(2, ParallelBZip2InputStream.findBlocks(archivePath).length);
+
+        File dir = new File(resourceDir.getRoot(), "closed-en_tit_ulb");
+        ResourceContainer container = ResourceContainer.open(archivePath, dir, 4);
+        assertEquals(4, container.chapters().length);
+        assertEquals("Titus", container.readChunk("front", "title").trim());
+    }
+    @Test
+    public void closeResourceContainerWithCodecs() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resource.getPath());
+
+        ArchiveCodec[] codecs = {ArchiveCodecs.GZIP, ArchiveCodecs.DEFLATE, ArchiveCodecs.NONE, ArchiveCodecs.BZIP2};
+        for(ArchiveCodec codec:codecs) {
+            File archive = ResourceContainer.close(containerDir, codec);
+            assertEquals(codec, ArchiveCodecs.detect(archive));
+
+            File dir = new File(resourceDir.getRoot(), codec.getName() + "-en_tit_ulb");
+            ResourceContainer container = ResourceContainer.open(archive, dir);
+            assertEquals(4, container.chapters().length);
+            assertEquals("Titus", container.readChunk("front", "title").trim());
+        }
+    }
+    @Test
+    public void detectArchiveCodec() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        assertEquals(ArchiveCodecs.BZIP2, ArchiveCodecs.detect(new File(classLoader.getResource("closed-en_tit_ulb.tsrc").getPath())));
+        assertNull(ArchiveCodecs.detect(new File(classLoader.getResource("raw_source.json").getPath())));
+        assertEquals(ArchiveCodecs.GZIP, ArchiveCodecs.get("gzip"));
+        assertNull(ArchiveCodecs.get("missing"));
+    }
+    @Test
+    public void mountIndexedContainer() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resource.getPath());
+        ResourceContainer opened = ResourceContainer.load(containerDir);
+
+        File archive = ResourceContainer.closeIndexed(containerDir);
+        assertTrue(archive.exists());
+
+        ResourceContainer mounted = ResourceContainer.mount(archive);
+        assertEquals(archive, mounted.path);
+        assertEquals(opened.slug, mounted.slug);
+        assertEquals(opened.chapters().length, mounted.chapters().length);
+        assertEquals(8, mounted.chunks("01").length);
+        assertEquals(0, mounted.chunks("missing").length);
+        assertEquals(opened.readChunk("01", "01"), mounted.readChunk("01", "01"));
+        assertEquals("Titus", mounted.readChunk("front", "title").trim());
+        assertEquals("", mounted.readChunk("01", "missing"));
+        assertEquals(opened.config(), mounted.config());
+        assertEquals(opened.toc(), mounted.toc());
+        mounted.unmount();
+
+        File dir = new File(resourceDir.getRoot(), "indexed-en_tit_ulb");
+        ResourceContainer container = ResourceContainer.open(archive, dir);
+        assertEquals(4, container.chapters().length);
+        assertEquals(opened.readChunk("01", "01"), container.readChunk("01", "01"));
+    }
+    @Test
+    public void mountTarContainer() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resource.getPath());
+        ResourceContainer opened = ResourceContainer.load(containerDir);
+
+        File archive = ResourceContainer.close(containerDir, ArchiveCodecs.NONE);
+        ResourceContainer mounted = ResourceContainer.mount(archive);
+        assertEquals(opened.slug, mounted.slug);
+        assertEquals(opened.chapters().length, mounted.chapters().length);
+        assertEquals(8, mounted.chunks("01").length);
+        assertEquals(opened.readChunk("03", "15"), mounted.readChunk("03", "15"));
+        assertEquals("Titus", mounted.readChunk("front", "title").trim());
+        assertEquals(opened.config(), mounted.config());
+        assertEquals(opened.toc(), mounted.toc());
+        mounted.unmount();
+    }
+    @Test
+    public void closeUncompressedContainerToExactSize() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resource.getPath());
+
+        // a stale archive that is larger than the new one
+        File archive = new File(containerDir.getAbsolutePath() + "." + ResourceContainer.fileExtension);
+        FileOutputStream stale = new FileOutputStream(archive);
+        stale.write(new byte[1024 * 1024]);
+        stale.close();
+
+        assertEquals(archive, ResourceContainer.close(containerDir, ArchiveCodecs.NONE));
+        TarFile tar = new TarFile(archive);
+        List<TarFile.Entry> entries = tar.getEntries();
+        tar.close();
+        // the manifest is a pax header rather than an entry
+        assertEquals("package.json", entries.get(0).getName());
+        assertNull(tar.getEntry("pax_global_header"));
+        TarFile.Entry last = entries.get(entries.size() - 1);
+        long end = last.getDataOffset() + (last.getSize() + TarConstants.DATA_BLOCK - 1) / TarConstants.DATA_BLOCK * TarConstants.DATA_BLOCK;
+        assertEquals(end + TarConstants.EOF_BLOCK, archive.length());
+    }
+    @Test
+    public void openTarContainerInParallel() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resource.getPath());
+        ResourceContainer opened = ResourceContainer.load(containerDir);
+
+        File archive = ResourceContainer.close(containerDir, ArchiveCodecs.NONE);
+        ResourceContainer container = ResourceContainer.open(archive, new File(resourceDir.getRoot(), "tar-en_tit_ulb"), 4);
+        assertEquals(opened.chapters().length, container.chapters().length);
+        assertEquals(opened.chunks("03").length, container.chunks("03").length);
+        assertEquals(opened.readChunk("03", "15"), container.readChunk("03", "15"));
+        assertEquals(opened.toc(), container.toc());
+        assertFalse(new File(container.path, "pax_global_header").exists());
+
+        container = ResourceContainer.open(archive, new File(resourceDir.getRoot(), "tar-selected-en_tit_ulb"), EntryFilter.chapters("03"));
+        assertEquals(1, container.chapters().length);
+        assertEquals(opened.readChunk("03", "15"), container.readChunk("03", "15"));
+    }
+    @Test
+    public void failMountingCompressedContainer() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("closed-en_tit_ulb.tsrc");
+        try {
+            ResourceContainer.mount(new File(resource.getPath()));
+            fail();
+        } catch (Exception e) {
+            assertNotNull(e);
+        }
+    }
+    @Test
     public void failClosingMissingContainer() throws Exception {
         try {
             File archive = ResourceContainer.close(new File("missing_file"));
@@ -85,6 +677,102 @@ public class ContainerUnitTest {
         assertEquals(container.info.getString("package_version"), ResourceContainer.version);
     }
     @Test
+    public void openResourceContainerArchiveWithoutTempFile() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("closed-en_tit_ulb.tsrc");
+        File archivePath = new File(resource.getPath());
+        File dir = new File(resourceDir.getRoot(), "closed-en_tit_ulb");
+
+        ResourceContainer container = ResourceContainer.open(archivePath, dir);
+        assertNotNull(container);
+        assertFalse(new File(archivePath + ".tmp.tar").exists());
+        assertEquals(4, container.chapters().length);
+        assertEquals("Titus", container.readChunk("front", "title").trim());
+    }
+    @Test
+    public void openSelectedChapters() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("closed-en_tit_ulb.tsrc");
+        File archivePath = new File(resource.getPath());
+        File dir = new File(resourceDir.getRoot(), "selected-en_tit_ulb");
+
+        ResourceContainer container = ResourceContainer.open(archivePath, dir, EntryFilter.chapters("01"));
+        assertEquals(1, container.chapters().length);
+        assertTrue(container.chunks("01").length > 0);
+        assertEquals(0, container.chunks("02").length);
+        assertNotNull(container.toc);
+        assertNotNull(container.config);
+        assertTrue(new File(dir, "package.json").exists());
+
+        // open another chapter
+        container = ResourceContainer.open(archivePath, dir, EntryFilter.chapters("02"));
+        assertEquals(2, container.chapters().length);
+        assertTrue(container.chunks("02").length > 0);
+
+        // indexed archives
+        File indexed = ResourceContainer.closeIndexed(new File(classLoader.getResource("open-en_tit_ulb").getPath()));
+        File indexedDir = new File(resourceDir.getRoot(), "selected-indexed-en_tit_ulb");
+        container = ResourceContainer.open(indexed, indexedDir, EntryFilter.glob("content/front/*"));
+        assertEquals(1, container.chapters().length);
+        assertEquals("Titus", container.readChunk("front", "title").trim());
+    }
+    @Test
+    public void closePartiallyOpenedContainer() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        File archive = new File(resourceDir.getRoot(), "partial-en_tit_ulb.tsrc");
+        FileUtil.copyFile(new File(classLoader.getResource("closed-en_tit_ulb.tsrc").getPath()), archive);
+        File dir = new File(resourceDir.getRoot(), "partial-en_tit_ulb");
+
+        ResourceContainer container = ResourceContainer.open(archive, dir, EntryFilter.chapters("01"));
+        assertEquals(1, container.chapters().length);
+
+        // the chapters that were not opened are kept in the archive
+        assertEquals(archive, ResourceContainer.close(dir));
+        assertEquals(4, ResourceContainer.load(dir).chapters().length);
+        FileUtil.deleteQuietly(dir);
+        container = ResourceContainer.open(archive, dir);
+        assertEquals(4, container.chapters().length);
+        assertFalse(new File(dir, ".tsrc-partial").exists());
+
+        // opening the entire container fills in the rest
+        FileUtil.deleteQuietly(dir);
+        container = ResourceContainer.open(archive, dir, EntryFilter.chapters("02"));
+        assertEquals(1, container.chapters().length);
+        container = ResourceContainer.open(archive, dir);
+        assertEquals(4, container.chapters().length);
+        assertFalse(new File(dir, ".tsrc-partial").exists());
+    }
+    @Test
+    public void closeTarContainerAsIndexed() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        File dir = new File(resourceDir.getRoot(), "tar-format-en_tit_ulb");
+        FileUtil.copyDirectory(new File(classLoader.getResource("open-en_tit_ulb").getPath()), dir, null);
+
+        // a tar is not reused for an indexed archive with the same codec
+        File archive = ResourceContainer.close(dir, ArchiveCodecs.DEFLATE);
+        assertFalse(IndexedArchive.isIndexed(archive));
+        assertEquals(archive, ResourceContainer.closeIndexed(dir));
+        assertTrue(IndexedArchive.isIndexed(archive));
+        ResourceContainer mounted = ResourceContainer.mount(archive);
+        assertEquals(4, mounted.chapters().length);
+        mounted.unmount();
+    }
+    @Test
+    public void closeIndexedContainerAsTar() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        File dir = new File(resourceDir.getRoot(), "indexed-format-en_tit_ulb");
+        FileUtil.copyDirectory(new File(classLoader.getResource("open-en_tit_ulb").getPath()), dir, null);
+
+        // an indexed archive is not reused for a tar with the same codec
+        File archive = ResourceContainer.closeIndexed(dir, ArchiveCodecs.BZIP2);
+        assertTrue(IndexedArchive.isIndexed(archive));
+        ResourceContainer.CloseStats stats = new ResourceContainer.CloseStats();
+        ResourceContainer.close(dir, ArchiveCodecs.BZIP2, 1, stats);
+        assertFalse(stats.upToDate);
+        assertFalse(IndexedArchive.isIndexed(archive));
+        assertEquals(ArchiveCodecs.BZIP2, ArchiveCodecs.detect(archive));
+    }
+    @Test
     public void openResourceContainerFolder() throws Exception {
         ClassLoader classLoader = this.getClass().getClassLoader();
         URL resource = classLoader.getResource("open-en_tit_ulb");
@@ -130,6 +818,45 @@ public class ContainerUnitTest {
         assertEquals(json.getString("package_version"), ResourceContainer.version);
     }
     @Test
+    public void inspectClosedContainerWithoutExtracting() throws Exception {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        URL resource = classLoader.getResource("open-en_tit_ulb");
+        File containerDir = new File(resource.getPath());
+
+        ArchiveCodec[] codecs = {ArchiveCodecs.NONE, ArchiveCodecs.BZIP2};
+        for(ArchiveCodec codec:codecs) {
+            File archive = ResourceContainer.close(containerDir, codec);
+            ContainerTools.InspectStats stats = new ContainerTools.InspectStats();
+            JSONObject json = ContainerTools.inspect(archive, stats);
+            assertEquals(json.getString("package_version"), ResourceContainer.version);
+            assertTrue(stats.terminatedEarly);
+            assertEquals(1, stats.entriesScanned);
+            assertTrue(stats.bytesDecompressed < 34304);
+            assertFalse(new File(archive.getParentFile(), archive.getName() + ".inspect.tmp").exists());
+        }
+
+        File indexed = ResourceContainer.closeIndexed(containerDir);
+        ContainerTools.InspectStats stats = new ContainerTools.InspectStats();
+        JSONObject json = ContainerTools.inspect(indexed, stats);
+        assertEquals(json.getString("package_version"), ResourceContainer.version);
+        assertTrue(stats.terminatedEarly);
+        ResourceContainer.close(containerDir);
+
+        // package.json is the last entry
+        File packageOnly = new File(resourceDir.getRoot(), "package-only");
+        packageOnly.mkdirs();
+        FileUtil.copyFile(new File(containerDir, "package.json"), new File(packageOnly, "package.json"));
+        for(ArchiveCodec codec:codecs) {
+            stats = new ContainerTools.InspectStats();
+            ContainerTools.inspect(ResourceContainer.close(packageOnly, codec), stats);
+            assertFalse(stats.terminatedEarly);
+            assertEquals(1, stats.entriesScanned);
+        }
+        stats = new ContainerTools.InspectStats();
+        ContainerTools.inspect(ResourceContainer.closeIndexed(packageOnly), stats);
+        assertFalse(stats.terminatedEarly);
+    }
+    @Test
     public void inspectOpenedContainer() throws Exception {
         ClassLoader classLoader = this.getClass().getClassLoader();
         URL resource = classLoader.getResource("open-en_tit_ulb");
@@ -18,17 +18,25 @@
 package org.unfoldingword.tools.jtar;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.zip.GZIPInputStream;
 
 import org.junit.Before;
@@ -270,6 +278,314 @@ public class JTarTest {
 		assertTrue(fileEntry.equals(createdEntry));
 	}
 
+	@Test
+	public void reuseHeaderBuffer() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(bytes);
+		String[] names = { "one", "dir/", "dir/two" };
+		for (String name : names) {
+			byte[] data = name.endsWith("/") ? new byte[0] : name.getBytes("UTF-8");
+			out.putNextEntry(new TarEntry(TarHeader.createHeader(name, data.length, 0, name.endsWith("/"), 0644)));
+			out.write(data);
+		}
+		out.close();
+
+		TarInputStream in = new TarInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		byte[] header = new byte[TarConstants.HEADER_BLOCK];
+		for (String name : names) {
+			TarEntry entry = in.getNextEntry(header);
+			assertEquals(name.endsWith("/"), entry.isDirectory());
+			assertEquals(name, entry.getName());
+			if (!entry.isDirectory()) {
+				byte[] data = new byte[(int) entry.getSize()];
+				assertEquals(data.length, in.read(data));
+				assertEquals(name, new String(data, "UTF-8"));
+			}
+		}
+		assertNull(in.getNextEntry(header));
+		in.close();
+	}
+
+	/**
+	 * Compares listing a large tar with lazily decoded headers against fully
+	 * parsed headers. There is no JMH harness in this project so the rates
+	 * are only printed.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void listLargeTar() throws IOException {
+		final int count = 30000;
+		File tar = new File(dir, "large.tar");
+		TarOutputStream out = new TarOutputStream(new BufferedOutputStream(new FileOutputStream(tar)));
+		byte[] data = "chunk".getBytes("UTF-8");
+		for (int i = 0; i < count; i++) {
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("content/" + (i / 100) + "/" + (i % 100) + ".usfm", data.length, 0, false, 0644)));
+			out.write(data);
+		}
+		out.close();
+
+		TarInputStream in = new TarInputStream(new BufferedInputStream(new FileInputStream(tar)));
+		byte[] header = new byte[TarConstants.HEADER_BLOCK];
+		int lazy = 0;
+		TarEntry entry;
+		while ((entry = in.getNextEntry(header)) != null) {
+			if (entry.getName().endsWith(".usfm") && entry.getSize() == data.length)
+				lazy++;
+		}
+		in.close();
+
+		in = new TarInputStream(new BufferedInputStream(new FileInputStream(tar)));
+		int eager = 0;
+		while ((entry = in.getNextEntry()) != null) {
+			TarEntry parsed = new TarEntry(entry.getHeader());
+			if (parsed.getName().endsWith(".usfm") && parsed.getSize() == data.length)
+				eager++;
+		}
+		in.close();
+
+		assertEquals(count, lazy);
+		assertEquals(count, eager);
+	}
+
+	@Test
+	public void octalFields() throws IOException {
+		byte[] buf = new byte[TarHeader.SIZELEN];
+		long[] values = { 0, 1, 7, 8, 0755, 14523, 1234567890L, 077777777777L };
+		for (long value : values) {
+			Octal.getLongOctalBytes(value, buf, 0, buf.length);
+			assertEquals(value, Octal.parseOctal(buf, 0, buf.length));
+			Octal.getOctalBytes(value & 0777777, buf, 0, TarHeader.MODELEN);
+			assertEquals(value & 0777777, Octal.parseOctal(buf, 0, TarHeader.MODELEN));
+		}
+
+		// the checksum is summed while the header is written
+		TarEntry entry = new TarEntry(TarHeader.createHeader("content/01/01.usfm", 14523, 1234567890L, false, 0644));
+		byte[] header = new byte[TarConstants.HEADER_BLOCK];
+		entry.writeEntryHeader(header);
+		long checkSum = new TarEntry(header).getHeader().checkSum;
+		for (int i = 0; i < TarHeader.CHKSUMLEN; i++)
+			header[148 + i] = (byte) ' ';
+		assertEquals(entry.computeCheckSum(header), checkSum);
+	}
+
+	@Test
+	public void putFile() throws IOException {
+		File file = new File(dir, "media.bin");
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 31);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(data);
+		fos.close();
+
+		// transferred between channels
+		File tar = new File(dir, "channel.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("small", 1, 0, false, 0644)));
+		out.write('a');
+		out.putFile(file, new TarEntry(TarHeader.createHeader("media.bin", data.length, 0, false, 0644)));
+		out.close();
+
+		// copied through the stream
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		out = new TarOutputStream(bytes);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("small", 1, 0, false, 0644)));
+		out.write('a');
+		out.putFile(file, new TarEntry(TarHeader.createHeader("media.bin", data.length, 0, false, 0644)));
+		out.close();
+
+		assertEquals(bytes.size(), tar.length());
+		byte[] written = new byte[(int) tar.length()];
+		RandomAccessFile raf = new RandomAccessFile(tar, "r");
+		raf.readFully(written);
+		raf.close();
+		assertTrue(Arrays.equals(bytes.toByteArray(), written));
+
+		TarInputStream in = new TarInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		in.getNextEntry();
+		assertEquals("media.bin", in.getNextEntry().getName());
+		byte[] read = new byte[data.length];
+		int n = 0;
+		while (n < read.length)
+			n += in.read(read, n, read.length - n);
+		assertTrue(Arrays.equals(data, read));
+		in.close();
+	}
+
+	@Test
+	public void putFileThatChangedSize() throws IOException {
+		File file = new File(dir, "changed.txt");
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write("grown".getBytes("UTF-8"));
+		fos.close();
+
+		// the entries were listed before the file grew and after it shrank
+		File tar = new File(dir, "changed.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.putFile(file, new TarEntry(TarHeader.createHeader("grown.txt", 2, 0, false, 0644)));
+		out.putFile(file, new TarEntry(TarHeader.createHeader("shrank.txt", 100, 0, false, 0644)));
+		out.close();
+
+		TarInputStream in = new TarInputStream(new FileInputStream(tar));
+		for (String name : new String[] { "grown.txt", "shrank.txt" }) {
+			TarEntry entry = in.getNextEntry();
+			assertEquals(name, entry.getName());
+			assertEquals(5, entry.getSize());
+			byte[] read = new byte[5];
+			int n = 0;
+			while (n < read.length)
+				n += in.read(read, n, read.length - n);
+			assertEquals("grown", new String(read, "UTF-8"));
+		}
+		assertNull(in.getNextEntry());
+		in.close();
+	}
+
+	@Test
+	public void seekOverPayloads() throws IOException {
+		File tar = new File(dir, "seek.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		byte[] data = new byte[100 * 1024 + 1];
+		for (int i = 0; i < 4; i++) {
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("file" + i, data.length, 0, false, 0644)));
+			out.write(data);
+		}
+		out.close();
+
+		final long[] read = new long[1];
+		FileInputStream fin = new FileInputStream(tar) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					read[0] += n;
+				}
+				return n;
+			}
+		};
+		TarInputStream tin = new TarInputStream(fin);
+		TarFile tarFile = new TarFile(tar);
+		TarEntry entry;
+		int i = 0;
+		while ((entry = tin.getNextEntry()) != null) {
+			assertEquals("file" + i, entry.getName());
+			assertEquals(tarFile.getEntry(entry.getName()).getDataOffset(), tin.getCurrentOffset());
+			i++;
+		}
+		tin.close();
+		tarFile.close();
+		assertEquals(4, i);
+		// only the headers and the end of the archive were read
+		assertEquals(5 * TarConstants.HEADER_BLOCK, read[0]);
+
+		RandomAccessFile raf = new RandomAccessFile(tar, "r");
+		tin = new TarInputStream(raf.getChannel());
+		tin.getNextEntry();
+		assertEquals(10, tin.skip(10));
+		assertEquals(TarConstants.HEADER_BLOCK + 10, tin.getCurrentOffset());
+		assertEquals("file1", tin.getNextEntry().getName());
+		tin.close();
+	}
+
+	@Test
+	public void randomAccessTarFile() throws IOException {
+		File tar = new File(dir, "random.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		String[] names = { "package.json", "content/", "content/01/01.usfm", "content/02/01.usfm" };
+		for (String name : names) {
+			byte[] data = name.endsWith("/") ? new byte[0] : ("data of " + name).getBytes("UTF-8");
+			out.putNextEntry(new TarEntry(TarHeader.createHeader(name, data.length, 0, name.endsWith("/"), 0644)));
+			out.write(data);
+		}
+		out.close();
+
+		TarFile tarFile = new TarFile(tar);
+		assertEquals(names.length, tarFile.getEntries().size());
+		assertTrue(tarFile.getEntry("content/").isDirectory());
+		assertNull(tarFile.getEntry("missing"));
+
+		TarFile.Entry entry = tarFile.getEntry("content/02/01.usfm");
+		assertEquals(entry.getHeaderOffset() + TarConstants.HEADER_BLOCK, entry.getDataOffset());
+		assertEquals("content/02/01.usfm", tarFile.getTarEntry(entry).getName());
+		InputStream in = tarFile.getInputStream(entry);
+		assertEquals("data of content/02/01.usfm", TestUtils.readFromStream(new char[2048], new StringBuilder(), new InputStreamReader(in, "UTF-8")));
+
+		ByteBuffer buffer = tarFile.map(tarFile.getEntry("package.json"));
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		assertEquals("data of package.json", new String(data, "UTF-8"));
+		tarFile.close();
+	}
+
+	@Test
+	public void skipPaxHeaders() throws IOException {
+		assertEquals("15 comment=abc\n", new String(TarUtils.formatPaxRecord("comment", "abc"), "UTF-8"));
+		char[] value = new char[88];
+		Arrays.fill(value, 'a');
+		// the length grows to three digits when its own digits are counted
+		byte[] record = TarUtils.formatPaxRecord("comment", new String(value));
+		assertEquals(101, record.length);
+		assertEquals("101 ", new String(record, 0, 4, "UTF-8"));
+
+		File tar = new File(dir, "pax.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		byte[] records = TarUtils.formatPaxRecord("comment", "caf\u00e9");
+		TarHeader header = TarHeader.createHeader("pax_global_header", records.length, 0, false, 0644);
+		header.linkFlag = TarHeader.LF_PAX_GLOBAL;
+		out.putNextEntry(new TarEntry(header));
+		out.write(records);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("file", 1, 0, false, 0644)));
+		out.write('a');
+		out.close();
+
+		TarInputStream in = new TarInputStream(new FileInputStream(tar));
+		assertEquals("file", in.getNextEntry().getName());
+		assertEquals("caf\u00e9", in.getPaxGlobalHeaders().get("comment"));
+		assertEquals('a', in.read());
+		assertNull(in.getNextEntry());
+		in.close();
+
+		TarFile tarFile = new TarFile(tar);
+		assertEquals(1, tarFile.getEntries().size());
+		assertEquals("file", tarFile.getEntries().get(0).getName());
+		assertEquals("caf\u00e9", tarFile.getPaxGlobalHeaders().get("comment"));
+		tarFile.close();
+	}
+
+	@Test
+	public void rejectMalformedPaxRecords() throws IOException {
+		String[] malformed = { "0 comment=abc\n", "15 comment=abc\n0 a=b\n", "15 comment=abc\n2 \n",
+				"15 comment=abc\n1 a=b\n", "99999999999999999999 a=b\n", "15 comment=abc" };
+		for (String data : malformed) {
+			try {
+				TarUtils.parsePaxRecords(data.getBytes("UTF-8"));
+				fail("Accepted " + data);
+			} catch (IOException e) {
+				// expected
+			}
+		}
+
+		// a corrupt header fails like any other corrupt tar
+		File tar = new File(dir, "malformed-pax.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		byte[] records = "0 comment=abc\n".getBytes("UTF-8");
+		TarHeader header = TarHeader.createHeader("pax_global_header", records.length, 0, false, 0644);
+		header.linkFlag = TarHeader.LF_PAX_GLOBAL;
+		out.putNextEntry(new TarEntry(header));
+		out.write(records);
+		out.close();
+		TarInputStream in = new TarInputStream(new FileInputStream(tar));
+		try {
+			in.getNextEntry();
+			fail("Accepted a malformed pax header");
+		} catch (IOException e) {
+			// expected
+		} finally {
+			in.close();
+		}
+	}
+
 	private void assertFileContents(File destFolder) throws UnsupportedEncodingException, FileNotFoundException, IOException {
 		assertEquals("HPeX2kD5kSTc7pzCDX", TestUtils.readFile(new File(destFolder, "tartest/one")));
 		assertEquals("gTzyuQjfhrnyX9cTBSy", TestUtils.readFile(new File(destFolder, "tartest/two")));